@@ -5,18 +5,15 @@
 
 package frc.robot;
 
-import java.io.IOException;
-
 import com.revrobotics.CANSparkMax.IdleMode;
 
-import edu.wpi.first.apriltag.AprilTagFieldLayout;
 import edu.wpi.first.apriltag.AprilTagFields;
 import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.geometry.Translation3d;
-import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.util.Units;
+import frc.robot.lib.DriveInputShaper;
 
 
 /** Add your docs here. */
@@ -34,6 +31,18 @@ public class Constants {
         public static final int kDriverControllerPort = 0; 
         public static final int kOperatorControllerPort = 1; 
         public static final double kDeadband = 0.1; 
+        //// the heading is locked once the robot turns slower than this after the rotation stick is released
+        public static final double kHeadingHoldCaptureRate = Math.toRadians(10); // radians per second
+
+        //// driver input shaping defaults, all tunable live under "Input/" on the dashboard
+        public static final double kTranslationDeadband = 0.075;
+        public static final double kRotationDeadband = 0.075;
+        public static final DriveInputShaper.Curve kDefaultCurve = DriveInputShaper.Curve.SQUARED;
+        public static final double kCurveExponent = 3; // EXPONENTIAL curve
+        public static final double kCubicWeight = 0.7; // CUBIC curve: share of x^3 blended with x
+        //// fraction of full stick per second; zero turns the limit off and leaves it to the drivetrain
+        public static final double kTranslationRateLimit = 0;
+        public static final double kRotationRateLimit = 0;
     }
     
     public static final class Arm {
@@ -95,17 +104,45 @@ public class Constants {
         public static final double kMaxAccel = kMaxSpeedMetersPerSecond * 2;
 
         public static final double kMaxAngularAccel = kMaxAccel/Math.hypot(kTrackWidth/2.0, kWheelBase/2.0);
+
+        //// Drive modes: fraction of full speed and of full acceleration for translation and rotation.
+        //// Slow mode is the right bumper, medium mode the left bumper.
+        public static final double kSlowTranslationScale = 0.2;
+        public static final double kSlowRotationScale = 0.2;
+        public static final double kSlowAccelScale = 0.5;
+        public static final double kMediumTranslationScale = 0.5;
+        public static final double kMediumRotationScale = 0.5;
+        public static final double kMediumAccelScale = 0.75;
+        //// how fast the speed scales move toward a newly selected mode, in scale per second
+        public static final double kModeTransitionRate = 3.0;
+
+        //// Optional high-rate output loop. Commands only publish a target, and a Notifier turns the
+        //// latest one into module setpoints at this rate.
+        public static final boolean kUseControlLoop = false;
+        public static final double kControlLoopPeriodSeconds = 0.01;
+        public static final int kControlLoopThreadPriority = 15;
+        //// the loop stops the robot if no command has published a target for this long
+        public static final double kControlLoopRequestTimeout = 0.1;
         // Chassis configuration
         
 
         ////Translation2d's are the x and y coordinates relative to your gyro. In this instance, 
         ////the four Translation2d objects are the coordinates of your four swerve modules
         //// x is front and back and y is left and right
-        public static final SwerveDriveKinematics kDriveKinematics = new SwerveDriveKinematics(
+        public static final Translation2d[] kModuleTranslations = {
             new Translation2d(kWheelBase / 2, kTrackWidth / 2),
             new Translation2d(kWheelBase / 2, -kTrackWidth / 2),
             new Translation2d(-kWheelBase / 2, kTrackWidth / 2),
-            new Translation2d(-kWheelBase / 2, -kTrackWidth / 2));
+            new Translation2d(-kWheelBase / 2, -kTrackWidth / 2)};
+
+        //// drive() hands states[2] to the front left module, states[3] to the front right,
+        //// states[0] to the rear left and states[1] to the rear right
+        //// (modules are listed front left, front right, rear left, rear right)
+        public static final int[] kDriveStateIndex = {2, 3, 0, 1};
+        //// so that is where each module really drives from: the module locations in odometry order,
+        //// kModuleTranslations[kDriveStateIndex[i]] for module i
+        public static final Translation2d[] kModuleLocations = {
+            kModuleTranslations[2], kModuleTranslations[3], kModuleTranslations[0], kModuleTranslations[1]};
         // Swerve Module IDs
 
         //Front Left Module
@@ -191,6 +228,262 @@ public class Constants {
     
         public static final int kDrivingMotorCurrentLimit = 40; // amps
         public static final int kTurningMotorCurrentLimit = 30; // amps
+
+        //// Odometry timing: the driving position frame period and the oldest frame still trusted while moving
+        public static final int kDrivingPositionFramePeriodMs = 10;
+        public static final double kMaxOdometrySampleAge = 0.06; // seconds
+
+        //// Re-seed the NEO steering encoder from the CANcoder once they disagree by more than this
+        public static final double kSteeringResyncThresholdRadians = Math.toRadians(2);
+        //// Never re-seed a module more often than this
+        public static final double kSteeringResyncMinIntervalSeconds = 1.0;
+        //// The module only counts as stationary below these speeds
+        public static final double kStationaryDrivingVelocity = 0.05; // meters per second
+        public static final double kStationarySteeringVelocity = 0.1; // radians per second
+
+        //// Setpoint conditioning: below this commanded speed the module keeps its last angle instead of steering
+        public static final double kSteerHoldSpeed = 0.03; // meters per second
+        //// Steering feedforward on the setpoint's rate of turn. The NEO turns the module at about
+        //// 46 radians per second on 12 volts; rates above the cap are treated as a jump, not a turn.
+        public static final double kTurningKv = 12.0 / (kNeoMotorFreeSpeedRpm / 60 * 2 * Math.PI / kSteeringMotorReduction); // volts per radian per second
+        public static final double kMaxSteeringFeedforwardVelocity = 20; // radians per second
+        //// setpoints further apart than this in time give no rate for the feedforward
+        public static final double kMaxSteeringFeedforwardDt = 0.1; // seconds
+      }
+
+      public static final class Auto {
+        //// DriveToDistance: gain on falling behind the profile and on drifting sideways off the line
+        public static final double kDriveP = 2.0;
+        public static final double kCrossTrackP = 1.5;
+        public static final double kDrivePositionTolerance = Units.inchesToMeters(1); // meters
+        public static final double kDriveVelocityTolerance = 0.05; // meters per second
+        //// DriveToDistance profiles at this fraction of the speed and acceleration drive() allows, leaving room for the corrections
+        public static final double kDriveProfileScale = 0.85;
+
+        //// TurnToAngle: gain on heading error and on the gyro rate falling behind the profile
+        public static final double kTurnP = 4.0;
+        public static final double kTurnRateP = 0.2;
+        public static final double kTurnPositionTolerance = Math.toRadians(1.5); // radians
+        public static final double kTurnVelocityTolerance = Math.toRadians(5); // radians per second
+        //// TurnToAngle profiles at this fraction of the turn rate and angular acceleration drive() allows
+        public static final double kTurnProfileScale = 0.85;
+
+        //// DriveToPose: path follower gains on position and heading error
+        public static final double kPathTranslationP = 3.0;
+        public static final double kPathRotationP = 2.0;
+        //// speed limits for paths planned on the fly, as a fraction of the drivetrain's maximums
+        public static final double kPathSpeedScale = 0.8;
+        public static final double kPathAccelScale = 0.6;
+      }
+
+      public static final class Balance {
+        //// Starting values, retune on the real charge station. Angles in degrees, speeds in meters per second.
+        public static final double kApproachSpeed = 1.5;
+        //// give up the approach if the ramp hasn't tilted the robot by this long or this far
+        public static final double kMaxApproachSeconds = 3.0;
+        public static final double kMaxApproachMeters = 3.0;
+        //// the ramp has been reached once the robot tilts past this
+        public static final double kClimbStartDegrees = 12;
+        public static final double kClimbSpeed = 0.8;
+        //// stop climbing once the tilt drops below this or the station starts tipping this fast
+        public static final double kClimbEndDegrees = 9;
+        public static final double kTippingRateDegreesPerSecond = 15;
+
+        //// settle: speed = kP * tilt + kD * (rate the tilt is growing), capped
+        public static final double kP = 0.025;
+        public static final double kD = 0.004;
+        public static final double kMaxSettleSpeed = 0.5;
+
+        public static final double kLevelDegrees = 2.5;
+        public static final double kLevelRateDegreesPerSecond = 5;
+        public static final double kSettleTimeSeconds = 0.3;
+
+        //// a locked robot goes back to settling if the station tips past this for long enough
+        public static final double kRelevelDegrees = 6;
+        public static final double kRelevelTimeSeconds = 0.5;
+        //// the command ends once the robot has stayed locked this long
+        public static final double kLockedTimeSeconds = 1.0;
+
+        //// smoothing for the pitch rate worked out from the pitch, in seconds
+        public static final double kPitchRateTimeConstant = 0.06;
+      }
+
+      public static final class Health {
+        //// how often the module health monitor runs, in seconds
+        public static final double kUpdatePeriodSeconds = 0.1;
+
+        //// a fault has to persist this long before a module is marked failed
+        public static final double kFaultDebounceSeconds = 0.5;
+
+        //// consecutive updates with identical SPARK MAX readings while commanded to move
+        public static final int kMaxStaleSamples = 5;
+        public static final double kMinMovingSpeedMetersPerSecond = 0.1;
+
+        public static final double kMaxMotorTemperatureCelsius = 90;
+
+        //// drawing this much current without the wheel turning means the drive is stalled
+        public static final double kStallCurrentAmps = 35;
+        public static final double kStallVelocityMetersPerSecond = 0.05;
+
+        //// allowed disagreement between the CANcoder and the NEO steering encoder
+        public static final double kMaxSteeringDivergenceRadians = Math.toRadians(15);
+        //// only compare the steering encoders while the module is turning slower than this
+        public static final double kMaxSteeringCompareVelocity = 0.5; // radians per second
+      }
+
+      public static final class Traction {
+        //// below this wheel speed slip is not checked, the measurement is mostly noise
+        public static final double kMinSlipCheckSpeed = 0.25; // meters per second
+        //// a wheel is slipping when it is off the expected speed by this much plus a fraction of that speed
+        public static final double kSlipThresholdMetersPerSecond = 0.3;
+        public static final double kSlipThresholdRatio = 0.15;
+
+        //// each loop a slipping wheel's commanded speed is multiplied by this, down to the minimum
+        public static final double kSlipReduction = 0.85;
+        public static final double kMinTractionScale = 0.5;
+        //// how much of the commanded speed a gripping wheel gets back each loop
+        public static final double kTractionRecoveryPerLoop = 0.05;
+      }
+
+      public static final class Power {
+        //// how often the current limits are recomputed, in seconds
+        public static final double kUpdatePeriodSeconds = 0.25;
+        //// rewriting the current limits is a blocking CAN write on each of eight controllers
+        public static final double kUpdateBudgetSeconds = 0.005;
+
+        //// brownout model: an open-circuit battery voltage behind this resistance (battery, leads and breaker)
+        public static final double kBatteryResistanceOhms = 0.02;
+        //// keep the battery above this so the roboRIO (6.8 V) and controllers never brown out
+        public static final double kMinBatteryVoltage = 7.5;
+        //// smoothing for the open-circuit voltage estimate, in seconds
+        public static final double kOpenCircuitFilterTimeConstant = 1.0;
+
+        public static final int kMinDrivingCurrentLimit = 25; // amps
+        public static final int kMaxDrivingCurrentLimit = 60; // amps
+        public static final int kMinTurningCurrentLimit = 15; // amps
+        public static final int kMaxTurningCurrentLimit = 30; // amps
+
+        //// only rewrite the limits once they have moved this far
+        public static final int kCurrentLimitHysteresisAmps = 5;
+      }
+
+      public static final class Tasks {
+        //// background tasks run on this tick, offset to land halfway between main loop cycles
+        public static final double kTickSeconds = 0.02;
+        public static final double kPhaseOffsetSeconds = 0.01;
+        //// once the tasks in a tick have used this much time, or the tick started this late because
+        //// the main loop ran long, only high priority tasks run and the rest wait for the next tick
+        public static final double kCycleBudgetSeconds = 0.004;
+        public static final double kLateThresholdSeconds = 0.003;
+        public static final double kDefaultTaskBudgetSeconds = 0.001;
+        //// ticks of task load looked at when picking a new task's phase
+        public static final int kLoadWindowTicks = 250;
+        public static final double kPublishPeriodSeconds = 1.0;
+      }
+
+      public static final class Loop {
+        public static final double kPeriodSeconds = 0.02;
+        //// a cycle overruns if it starts this much later than one period after the last,
+        //// or robotPeriodic() takes longer than the work budget
+        public static final double kOverrunToleranceSeconds = 0.002;
+        public static final double kWorkBudgetSeconds = 0.015;
+        //// optional work is shed when this many of the last window of cycles overran, at most once per hold
+        public static final int kWindowCycles = 50;
+        public static final int kShedOverruns = 5;
+        public static final int kShedHoldCycles = 10;
+        //// and restored after a window with no overruns and robotPeriodic() under this fraction of its budget
+        public static final double kRestoreWorkFraction = 0.6;
+        public static final double kPublishPeriodSeconds = 1.0;
+      }
+
+      public static final class PoseEstimator {
+        //// trust in the starting pose and in vision, as standard deviations of x and y in meters and heading in radians
+        public static final double[] kInitialStdDevs = {0.05, 0.05, Math.toRadians(2)};
+        public static final double[] kVisionStdDevs = {0.9, 0.9, 0.9};
+        //// how fast odometry drifts: variance added per meter driven, per radian turned and per second
+        public static final double kWheelVariancePerMeter = 0.005;
+        public static final double kGyroVariancePerRadian = 1e-4;
+        public static final double kGyroDriftVariancePerSecond = 1e-6;
+        //// odometry samples kept for delayed vision measurements; older images are ignored
+        public static final double kHistorySeconds = 1.5;
+        public static final int kHistorySize = 128;
+      }
+
+      public static final class AutoRegistry {
+        //// how often the auto chooser is checked for a new selection while disabled
+        public static final double kUpdatePeriodSeconds = 0.25;
+      }
+
+      public static final class Startup {
+        //// how long a startup recording run keeps going before exiting, so the disabled loop's classes are in it
+        public static final double kRecordSeconds = 5.0;
+      }
+
+      public static final class Gc {
+        //// how often queued collections are logged and the totals published
+        public static final double kUpdatePeriodSeconds = 0.5;
+        //// loop overruns remembered for matching against collections, about a second's worth at worst
+        public static final int kOverrunHistory = 50;
+        //// collections longer than this during an overrun also go to the console
+        public static final double kLogPauseSeconds = 0.005;
+      }
+
+      public static final class Tracing {
+        //// a command's execute() taking longer than this (wall time) is flagged as an overrun
+        public static final double kExecuteBudgetSeconds = 0.002;
+        //// upper edges of the execute() CPU time histogram buckets, in microseconds; a last bucket catches the rest
+        public static final long[] kHistogramBucketsMicros = {50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000};
+        //// how often the per-command statistics are published to the dashboard, in seconds
+        public static final double kPublishPeriodSeconds = 1.0;
+      }
+
+      public static final class Field {
+        //// 2023 field, in meters, with the origin at the blue alliance's right corner
+        public static final double kLength = 16.54;
+        public static final double kWidth = 8.02;
+
+        //// obstacles the planner keeps the robot out of, as blue-side boxes {minX, minY, maxX, maxY};
+        //// the red side is mirrored across the center line
+        public static final double[][] kBlueObstacles = {
+            {0.0, 0.0, 1.38, 5.49},     // grid
+            {2.92, 1.51, 4.85, 3.98},   // charge station
+            {0.0, 5.44, 3.36, 5.56},    // barrier between the community and the loading zone
+        };
+
+        //// the robot's bumpers stay this far from the center of the robot in every direction,
+        //// plus a margin for following error
+        public static final double kRobotRadius = 0.55;
+        public static final double kClearance = 0.1;
+
+        //// each grid tag sits in front of the middle of three scoring nodes
+        public static final int[] kBlueGridTagIds = {6, 7, 8};
+        public static final int[] kRedGridTagIds = {1, 2, 3};
+        public static final double kNodeSpacing = Units.inchesToMeters(22);
+        //// the robot's center when scoring, measured out from the grid tags
+        public static final double kScoringDistanceFromTag = 0.85;
+      }
+
+      public static final class Sim {
+        public static final double kLoopPeriodSeconds = 0.02;
+
+        //// module response: first-order lag on wheel speed and steering, with a steering rate cap
+        public static final double kDrivingTimeConstant = 0.06; // seconds
+        public static final double kSteeringTimeConstant = 0.03; // seconds
+        public static final double kMaxSteeringRate = 4 * Math.PI; // radians per second
+
+        //// sensor noise, drawn fresh for every trial from its seed
+        public static final double kWheelScaleStdDev = 0.01; // fraction of wheel diameter
+        public static final double kDrivingVelocityStdDev = 0.02; // meters per second
+        public static final double kAbsoluteEncoderStdDev = 1.0; // degrees
+        public static final double kGyroDriftStdDev = 0.3; // degrees per second of bias
+
+        //// autonomous benchmark
+        public static final int kDefaultTrials = 200;
+        public static final double kTrialTimeoutSeconds = 10;
+        //// time given to the drivetrain to come to rest between trials
+        public static final double kSettleSeconds = 1.0;
+        //// random start poses stay this far from the field walls
+        public static final double kStartMargin = 2.0; // meters
       }
 
       public static final class Intake {
@@ -252,14 +545,14 @@ public class Constants {
     //   }
 
       public static final class Vision {
-        public static AprilTagFieldLayout kAprilTagFieldLayout = null;
-        static {
-            try {
-                kAprilTagFieldLayout = AprilTagFieldLayout.loadFromResource(AprilTagFields.k2023ChargedUp.m_resourceFile);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+        //// the field layout FieldLayout.load() reads at robot startup
+        public static final AprilTagFields kFieldLayout = AprilTagFields.k2023ChargedUp;
+
+        //// tags further away or outside the camera's view are not expected to be seen
+        public static final double kCameraHorizontalFov = Math.toRadians(70);
+        public static final double kMaxTagDistance = 5.0; // meters
+        //// size of the cells the visible-tag lookup table is built on
+        public static final double kTagIndexCellSize = 0.25; // meters
 
         public static final String kCameraName = "gloworm";
         public static final Transform3d kRobotToCamera =
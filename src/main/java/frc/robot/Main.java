@@ -7,10 +7,13 @@ package frc.robot;
 
 import edu.wpi.first.wpilibj.RobotBase;
 
+import frc.robot.lib.StartupTimer;
+
 public final class Main {
   private Main() {}
 
   public static void main(String... args) {
+    StartupTimer.start();
     RobotBase.startRobot(Robot::new);
   }
 }
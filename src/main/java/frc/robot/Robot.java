@@ -9,25 +9,50 @@ import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 
+import frc.robot.lib.CommandTrace;
 import frc.robot.lib.DataLog;
+import frc.robot.lib.FieldLayout;
+import frc.robot.lib.GcMonitor;
+import frc.robot.lib.LoopGovernor;
+import frc.robot.lib.StartupTimer;
+import frc.robot.lib.TaskScheduler;
+import frc.robot.lib.TaskScheduler.Priority;
 import frc.robot.lib.Telemetry;
 
 public class Robot extends TimedRobot {
   private static Robot m_robotInstance;
   private RobotContainer m_robotContainer;
   private Command m_autonomousCommand;
+  private final TaskScheduler m_tasks = new TaskScheduler();
 
   @Override
   public void robotInit() {
     m_robotInstance = this;
+    StartupTimer.mark("HAL");
+    addPeriodic(m_tasks::run, Constants.Tasks.kTickSeconds, Constants.Tasks.kPhaseOffsetSeconds);
     DataLog.start();
     Telemetry.start(); 
+    StartupTimer.mark("logging");
+    FieldLayout.load();
+    StartupTimer.mark("field layout");
     m_robotContainer = new RobotContainer();    
+    StartupTimer.mark("robot container");
+    CommandTrace.start();
+    LoopGovernor.start();
+    GcMonitor.start();
+    StartupTimer.mark("monitors");
+    StartupTimer.report();
+
+    if (StartupTimer.isRecording()) {
+      addPeriodic(() -> System.exit(0), Constants.Startup.kRecordSeconds);
+    }
   }
 
   @Override
   public void robotPeriodic() {
+    LoopGovernor.startCycle();
     CommandScheduler.getInstance().run();
+    LoopGovernor.endCycle();
   }
 
   @Override
@@ -83,9 +108,22 @@ public class Robot extends TimedRobot {
   @Override
   public void testExit() {}
 
-   /** This function provides static access to create a custom periodic function in the current robot instance. */
-   public static void addCustomPeriodic(Runnable callback, double periodSeconds) {
-    m_robotInstance.addPeriodic(callback, periodSeconds, 0.02);
+   /**
+    * This function provides static access to add a background task to the current robot instance,
+    * with the default time budget. See {@link TaskScheduler}.
+    */
+   public static void addCustomPeriodic(String name, Runnable callback, double periodSeconds, Priority priority) {
+    addCustomPeriodic(name, callback, periodSeconds, priority, Constants.Tasks.kDefaultTaskBudgetSeconds);
+  }
+
+   /** This function provides static access to add a background task to the current robot instance. */
+   public static void addCustomPeriodic(String name, Runnable callback, double periodSeconds, Priority priority,
+      double budgetSeconds) {
+    // Headless simulation runs have no robot instance and step their own loop
+    if (m_robotInstance == null) {
+      return;
+    }
+    m_robotInstance.m_tasks.add(name, callback, periodSeconds, priority, budgetSeconds);
   }
   
   
@@ -5,23 +5,36 @@
 
 package frc.robot;
 
+import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.util.Units;
-import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.InstantCommand;
 import edu.wpi.first.wpilibj2.command.RunCommand;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
+import frc.robot.commands.auto.AutoAligner;
 import frc.robot.commands.auto.DriveToDistance;
 import frc.robot.commands.auto.TurnToAngle;
+import frc.robot.commands.drive.DriveToPose;
 import frc.robot.commands.drive.DriveWithJoysticks;
+import frc.robot.lib.AutoRegistry;
+import frc.robot.lib.DriveInputShaper;
+import frc.robot.lib.FieldLayout;
+import frc.robot.lib.FieldNavigator;
+import frc.robot.lib.TaskScheduler.Priority;
 import frc.robot.subsystems.Swerve;
+import frc.robot.subsystems.Swerve.DriveMode;
 
 
 public class RobotContainer {
 
-  private final SendableChooser<Command> chooser = new SendableChooser<Command>();
   private Swerve m_swerve = new Swerve();
+  private AutoRegistry m_autos;
+  private DriveWithJoysticks m_driveCommand;
+  private DriveInputShaper m_driveInput;
+  private final FieldNavigator m_navigator = new FieldNavigator(
+      Constants.Swerve.kMaxSpeedMetersPerSecond * Constants.Auto.kPathSpeedScale,
+      Constants.Swerve.kMaxAccel * Constants.Auto.kPathAccelScale);
 
   private final CommandXboxController m_driverController = new CommandXboxController(Constants.Controllers.kDriverControllerPort);
   //private final CommandXboxController m_operatorController = new CommandXboxController(Constants.Controllers.kOperatorControllerPort);
@@ -35,14 +48,15 @@ public class RobotContainer {
   }
 
   private void setupDrive() {
-    m_swerve.setDefaultCommand(
-      new DriveWithJoysticks(
-        m_swerve,
-        () -> modifyAxis(-m_driverController.getLeftY()),
-        () -> modifyAxis(m_driverController.getLeftX()),
-        () -> modifyAxis(-m_driverController.getRightX())
-      )
-    );
+    m_driveInput = new DriveInputShaper(
+        () -> -m_driverController.getLeftY(),
+        () -> m_driverController.getLeftX(),
+        () -> -m_driverController.getRightX()
+      );
+    Robot.addCustomPeriodic("InputSettings", m_driveInput::refreshSettings, 1, Priority.LOW);
+
+    m_driveCommand = new DriveWithJoysticks(m_swerve, m_driveInput);
+    m_swerve.setDefaultCommand(m_driveCommand);
   }
 
   private void configureButtonBindings() {
@@ -50,6 +64,17 @@ public class RobotContainer {
     m_driverController.y().onTrue(new InstantCommand(() -> m_swerve.zeroHeading(), m_swerve));
     m_driverController.a().onTrue(new InstantCommand(() -> m_swerve.resetEncoders(), m_swerve));
     m_driverController.x().onTrue(new InstantCommand(() -> m_swerve.setX(), m_swerve));
+    //a failed swerve module stays out until it is checked and put back with back
+    m_driverController.back().onTrue(new InstantCommand(() -> m_swerve.resetModuleHealth()));
+
+    //snap to a field angle with the d-pad, the robot holds it until the rotation stick is moved
+    m_driverController.povUp().onTrue(new InstantCommand(() -> m_driveCommand.snapToAngle(0)));
+    m_driverController.povLeft().onTrue(new InstantCommand(() -> m_driveCommand.snapToAngle(90)));
+    m_driverController.povDown().onTrue(new InstantCommand(() -> m_driveCommand.snapToAngle(180)));
+    m_driverController.povRight().onTrue(new InstantCommand(() -> m_driveCommand.snapToAngle(-90)));
+
+    //hold B to drive to the closest scoring position on our grid, letting go hands control back
+    m_driverController.b().whileTrue(new DriveToPose(m_swerve, m_navigator, this::getNearestScoringPose));
    
 
     //m_operatorController.x().onTrue(new InstantCommand(() -> m_arm.getExtensionEncoder().setPosition(0), m_arm));
@@ -60,22 +85,29 @@ public class RobotContainer {
     // .or(m_operatorController.y().onTrue(new MoveToGoal(m_arm, Row.TOP)));
     
     //slow mode for right bumper, medium slow for left bumper
-    m_driverController.rightBumper().onTrue(new InstantCommand(() -> m_swerve.slowMode(), m_swerve))
-    .or(m_driverController.leftBumper().onTrue(new InstantCommand(() -> m_swerve.mediumMode(), m_swerve)))
-    .onFalse(new InstantCommand(() -> m_swerve.fastMode(), m_swerve));
+    m_driverController.rightBumper().onTrue(new InstantCommand(() -> m_swerve.setDriveMode(DriveMode.SLOW)))
+    .or(m_driverController.leftBumper().onTrue(new InstantCommand(() -> m_swerve.setDriveMode(DriveMode.MEDIUM))))
+    .onFalse(new InstantCommand(() -> m_swerve.setDriveMode(DriveMode.FAST)));
     
   }
 
+  //the routines are only built once selected, see AutoRegistry
   private void addCommandDropdown()
   {
-    chooser.setDefaultOption("Drive To Distance", new DriveToDistance(Units.feetToMeters(12), m_swerve));
-    chooser.addOption("Turn To Angle", new TurnToAngle(90, m_swerve));
+    m_autos = new AutoRegistry();
+    m_autos.addDefault("Drive To Distance", () -> new DriveToDistance(Units.feetToMeters(12), m_swerve));
+    m_autos.add("Turn To Angle", () -> new TurnToAngle(90, m_swerve));
+    //once balanced the wheels stay locked for the rest of autonomous
+    m_autos.add("Auto Balance", () -> new AutoAligner(m_swerve).andThen(new RunCommand(m_swerve::setX, m_swerve)));
+  }
 
-    SmartDashboard.putData(chooser);
+  //the scoring position in front of our grid closest to the robot, facing the grid
+  private Pose2d getNearestScoringPose() {
+    return FieldLayout.getNearestScoringPose(m_swerve.getPose().getTranslation(), DriverStation.getAlliance());
   }
 
   public Command getAutonomousCommand() {
-     return chooser.getSelected();
+     return m_autos.getSelected();
   }
 
   public void disabledInit()
@@ -83,26 +115,4 @@ public class RobotContainer {
 
   public void enabledInit()
   { }
-
-  private static double modifyAxis(double value)
-  {
-    value = deadBand(value, 0.075);
-
-    value = Math.copySign(value * value, value);
-
-    return value;
-  }
-
-  private static double deadBand(double value, double deadband)
-  {
-    if (Math.abs(value) > deadband)
-    {
-      if (value > 0.0)
-        return (value - deadband)/(1.0 - deadband);
-      else
-        return (value + deadband)/(1.0 - deadband);
-    }
-    else
-      return 0.0;
-  }
 }
@@ -1,33 +1,201 @@
 package frc.robot.commands.auto;
 
-import com.kauailabs.navx.frc.AHRS;
-
-import edu.wpi.first.math.controller.PIDController;
-import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.filter.Debouncer;
+import edu.wpi.first.math.filter.LinearFilter;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.wpilibj.TimedRobot;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.Constants;
+import frc.robot.lib.DataLog;
+import frc.robot.lib.DriveGyro;
 import frc.robot.subsystems.*;
 
+/**
+ * Drives onto the charge station and balances it.
+ *
+ * <p>Pitch and roll together give a tilt vector in the robot's frame, which is
+ * turned into a field-oriented correction so the robot does not need to be
+ * square to the ramp. The command goes through four states: approach at a fixed
+ * speed until the ramp tilts the robot, climb until the station starts to tip,
+ * settle with a PD loop on tilt and tilt rate, then lock the wheels in an X once
+ * level. If the station tips again while locked it goes back to settling; once
+ * it has stayed locked for {@link Constants.Balance#kLockedTimeSeconds} the
+ * command ends. If the ramp has not been reached within
+ * {@link Constants.Balance#kMaxApproachSeconds} or
+ * {@link Constants.Balance#kMaxApproachMeters}, the robot stops and the command
+ * ends rather than driving on across the field.
+ *
+ * <p>The pitch rate is worked out from the pitch readings themselves rather
+ * than taken from the navX's raw X gyro, so its sign always matches
+ * {@link DriveGyro#getPitch()}, whatever the board's axis conventions.
+ */
 public class AutoAligner extends CommandBase {
-    public final AHRS navx;
+    public enum State { APPROACH, CLIMB, SETTLE, LOCK }
+
+    public final DriveGyro navx;
     public final Swerve m_swerve;
-    public PIDController pid = new PIDController(0.01, 0, 0);
-    public ChassisSpeeds cs = new ChassisSpeeds(0, 0, 0);
+    private final double m_approachDegrees;
+    private Rotation2d m_approachDirection;
+    private double m_approachStartTime;
+    private Translation2d m_approachStart;
+
+    private State m_state;
+    private final Debouncer m_levelDebouncer = new Debouncer(Constants.Balance.kSettleTimeSeconds);
+    private final Debouncer m_tippedDebouncer = new Debouncer(Constants.Balance.kRelevelTimeSeconds);
+    private final Debouncer m_lockedDebouncer = new Debouncer(Constants.Balance.kLockedTimeSeconds);
+    private boolean m_isDone;
+
+    ////pitch rate, from the change in pitch each loop, smoothed
+    private final LinearFilter m_pitchRateFilter =
+        LinearFilter.singlePoleIIR(Constants.Balance.kPitchRateTimeConstant, TimedRobot.kDefaultPeriod);
+    private double m_lastPitch = Double.NaN;
 
+    /**
+     * Balances after driving straight ahead from wherever the robot is facing.
+     */
     public AutoAligner(Swerve m_swerve) {
+        this(m_swerve, Double.NaN);
+    }
+
+    /**
+     * @param m_swerve the drivetrain
+     * @param approachDegrees the field direction to approach the charge station in
+     */
+    public AutoAligner(Swerve m_swerve, double approachDegrees) {
         this.m_swerve = m_swerve;
         this.navx = m_swerve.getGyro();
-        pid.setTolerance(2.5, 0.1);
+        m_approachDegrees = approachDegrees;
+        addRequirements(m_swerve);
+    }
+
+    @Override
+    public void initialize() {
+        m_approachDirection = Double.isNaN(m_approachDegrees)
+            ? getHeading()
+            : Rotation2d.fromDegrees(m_approachDegrees);
+        m_pitchRateFilter.reset();
+        m_lastPitch = Double.NaN;
+        m_isDone = false;
+        m_approachStartTime = Timer.getFPGATimestamp();
+        m_approachStart = m_swerve.getPose().getTranslation();
+        setState(State.APPROACH);
+    }
+
+    ////the heading drive() uses for field-relative driving
+    private Rotation2d getHeading() {
+        return Rotation2d.fromDegrees(-m_swerve.getHeading());
     }
 
     @Override
     public void execute() {
-        cs.vxMetersPerSecond = pid.calculate(navx.getPitch(), 0);
-        m_swerve.drive(cs.vxMetersPerSecond, cs.vyMetersPerSecond, cs.omegaRadiansPerSecond, true);
+        ////tilt of the robot in its own frame (x forward, y left), in degrees, and how fast the pitch is changing
+        Translation2d tilt = new Translation2d(navx.getPitch(), navx.getRoll());
+        double tiltAngle = tilt.getNorm();
+        double pitchRate = getPitchRate(tilt.getX());
+
+        ////the correction drives against the tilt, turned into the field frame
+        Translation2d downhill = tiltAngle > 1e-6
+            ? tilt.div(-tiltAngle).rotateBy(getHeading())
+            : new Translation2d();
+
+        switch (m_state) {
+            case APPROACH:
+                if (tiltAngle > Constants.Balance.kClimbStartDegrees) {
+                    drive(new Translation2d(Constants.Balance.kApproachSpeed, m_approachDirection));
+                    setState(State.CLIMB);
+                    break;
+                }
+                ////missed the station, or the tilt isn't reading; stop instead of driving on across the field
+                double approachTime = Timer.getFPGATimestamp() - m_approachStartTime;
+                double approachDistance = m_swerve.getPose().getTranslation().getDistance(m_approachStart);
+                if (approachTime > Constants.Balance.kMaxApproachSeconds
+                        || approachDistance > Constants.Balance.kMaxApproachMeters) {
+                    DataLog.log(String.format("AutoAligner: no ramp after %.1f s and %.2f m, stopping",
+                        approachTime, approachDistance));
+                    drive(new Translation2d());
+                    m_isDone = true;
+                    break;
+                }
+                drive(new Translation2d(Constants.Balance.kApproachSpeed, m_approachDirection));
+                break;
+
+            case CLIMB:
+                drive(downhill.times(Constants.Balance.kClimbSpeed));
+                ////stop pushing as soon as the station starts to fall, it will carry the robot the rest of the way
+                if (tiltAngle < Constants.Balance.kClimbEndDegrees
+                        || Math.abs(pitchRate) > Constants.Balance.kTippingRateDegreesPerSecond) {
+                    setState(State.SETTLE);
+                }
+                break;
+
+            case SETTLE:
+                ////tilt rate damps the correction, so the robot stops before the station swings back past level
+                double rateAlongTilt = Math.abs(tilt.getX()) >= Math.abs(tilt.getY()) && tiltAngle > 1e-6
+                    ? pitchRate * Math.signum(tilt.getX())
+                    : 0;
+                double speed = MathUtil.clamp(
+                    Constants.Balance.kP * tiltAngle + Constants.Balance.kD * rateAlongTilt,
+                    0, Constants.Balance.kMaxSettleSpeed);
+                boolean level = tiltAngle < Constants.Balance.kLevelDegrees;
+                drive(level ? new Translation2d() : downhill.times(speed));
+
+                if (m_levelDebouncer.calculate(
+                        level && Math.abs(pitchRate) < Constants.Balance.kLevelRateDegreesPerSecond)) {
+                    setState(State.LOCK);
+                }
+                break;
+
+            case LOCK:
+                m_swerve.setX();
+                boolean tipped = tiltAngle > Constants.Balance.kRelevelDegrees;
+                if (m_tippedDebouncer.calculate(tipped)) {
+                    setState(State.SETTLE);
+                } else if (m_lockedDebouncer.calculate(!tipped)) {
+                    m_isDone = true;
+                }
+                break;
+        }
+    }
+
+    ////how fast the pitch is changing, in degrees per second, with the same sign as the pitch
+    private double getPitchRate(double pitch) {
+        double rate = Double.isNaN(m_lastPitch) ? 0 : (pitch - m_lastPitch) / TimedRobot.kDefaultPeriod;
+        m_lastPitch = pitch;
+        return m_pitchRateFilter.calculate(rate);
+    }
+
+    private void drive(Translation2d fieldVelocity) {
+        m_swerve.drive(fieldVelocity.getX(), fieldVelocity.getY(), 0, true);
+    }
+
+    private void setState(State state) {
+        m_state = state;
+        m_levelDebouncer.calculate(false);
+        m_tippedDebouncer.calculate(false);
+        m_lockedDebouncer.calculate(false);
+        DataLog.log("AutoAligner: " + state);
+        SmartDashboard.putString("Balance State", state.name());
+    }
+
+    public State getState() {
+        return m_state;
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        if (m_state != State.LOCK) {
+            m_swerve.drive(0, 0, 0, true);
+        }
     }
 
+    ////done once the robot has stayed locked and level for a while; the wheels are left in the X
     @Override
     public boolean isFinished() {
-        return pid.atSetpoint();
+        return m_isDone;
     }
 
-}
\ No newline at end of file
+}
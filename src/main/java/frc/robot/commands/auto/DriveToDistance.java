@@ -1,46 +1,83 @@
 package frc.robot.commands.auto;
 
-import edu.wpi.first.math.controller.PIDController;
-import edu.wpi.first.math.util.Units;
-import edu.wpi.first.wpilibj2.command.PIDCommand;
+import edu.wpi.first.math.controller.ProfiledPIDController;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.trajectory.TrapezoidProfile;
+import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.robot.Constants;
 import frc.robot.subsystems.Swerve;
 
-public class DriveToDistance extends PIDCommand{
+/**
+ * Drives straight forward a set distance along a trapezoid profile, measured
+ * from the robot's pose instead of the drive encoders so odometry is left alone.
+ * The profile stays inside what drive() lets through, with room left for the
+ * corrections, so the robot can actually follow it.
+ */
+public class DriveToDistance extends CommandBase{
     Swerve m_swerve;
-    
+    private final double m_distMeters;
+
+    ////the profile gives the speed to drive at (feedforward), the PID corrects for falling behind it;
+    ////the constraints are set when the command starts, from the drive mode in use then
+    private final ProfiledPIDController m_controller = new ProfiledPIDController(
+        Constants.Auto.kDriveP, 0, 0,
+        new TrapezoidProfile.Constraints(Constants.Swerve.kMaxSpeedMetersPerSecond, Constants.Swerve.kMaxAccel));
+
+    private Pose2d m_startPose;
+
     public DriveToDistance(double distMeters, Swerve m_swerve)
     {
-        super(
-            new PIDController(1.15, 0, 0),
-            m_swerve::getDistanceMeters, ////what is being measured
-            distMeters, ////where you want to be
-            output -> m_swerve.drive(output, 0, 0, false), ////the output to get to distMeters
-            m_swerve
-        );
-        
+        m_distMeters = distMeters;
+        this.m_swerve = m_swerve;
+
         ////sets tolerable error
-        getController().setTolerance(Units.inchesToMeters(5)); 
+        m_controller.setTolerance(Constants.Auto.kDrivePositionTolerance, Constants.Auto.kDriveVelocityTolerance);
 
-        this.m_swerve = m_swerve;
+        addRequirements(m_swerve);
     }
-    
-    //when
+
     @Override
     public void initialize()
     {
-        m_swerve.resetEncoders();
+        m_startPose = m_swerve.getPose();
+        ////drive() slew-limits each axis to the drive mode's acceleration, so the profile has to stay under it
+        m_controller.setConstraints(new TrapezoidProfile.Constraints(
+            Constants.Swerve.kMaxSpeedMetersPerSecond * Constants.Auto.kDriveProfileScale,
+            m_swerve.getMaxAccel() * Constants.Auto.kDriveProfileScale));
+        m_controller.reset(0);
+        m_controller.setGoal(m_distMeters);
+    }
+
+    @Override
+    public void execute()
+    {
+        ////how far we've gone along the line and how far we've drifted off it, in the starting frame
+        Translation2d travelled = m_swerve.getPose().getTranslation()
+            .minus(m_startPose.getTranslation())
+            .rotateBy(m_startPose.getRotation().unaryMinus());
+
+        double correction = m_controller.calculate(travelled.getX());
+        Translation2d velocity = new Translation2d(
+            m_controller.getSetpoint().velocity + correction,
+            -Constants.Auto.kCrossTrackP * travelled.getY());
+
+        ////the velocity is along and across the starting line, turn it into the robot's frame in case the robot has yawed since
+        Rotation2d yaw = m_swerve.getPose().getRotation().minus(m_startPose.getRotation());
+        velocity = velocity.rotateBy(yaw.unaryMinus());
+
+        m_swerve.drive(velocity.getX(), velocity.getY(), 0, false);
     }
 
     @Override
     public boolean isFinished()
     {
-        return getController().atSetpoint();    //  This command will terminate once the desired distance has been reached.
+        return m_controller.atGoal();    //  This command will terminate once the desired distance has been reached and the robot has stopped.
     }
-    
+
     @Override
     public void end(boolean interrupted) {
         m_swerve.drive(0, 0, 0, false);
-        m_swerve.resetEncoders();
     }
 }
@@ -1,34 +1,85 @@
 package frc.robot.commands.auto;
 
-import edu.wpi.first.math.controller.PIDController;
-import edu.wpi.first.wpilibj2.command.PIDCommand;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.controller.ProfiledPIDController;
+import edu.wpi.first.math.trajectory.TrapezoidProfile;
+import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.robot.Constants;
 import frc.robot.subsystems.Swerve;
 
-public class TurnToAngle extends PIDCommand{
+/**
+ * Turns the robot in place by an angle along a trapezoid profile. The heading
+ * wraps at +/-180 degrees so the robot always takes the short way round.
+ */
+public class TurnToAngle extends CommandBase{
     Swerve m_swerve;
-    
+    private final double m_angleRadians;
+
+    private final ProfiledPIDController m_controller = new ProfiledPIDController(
+        Constants.Auto.kTurnP, 0, 0,
+        new TrapezoidProfile.Constraints(Constants.Swerve.kMaxAngularSpeed, Constants.Swerve.kMaxAngularAccel));
+
+    /**
+     * @param angle how far to turn, in degrees, counter-clockwise positive
+     * @param m_swerve the drivetrain
+     */
     public TurnToAngle(double angle, Swerve m_swerve)
     {
-        super(
-            new PIDController(0.015, 0, 0),
-            m_swerve::getHeading,
-            angle + m_swerve.getHeading(),
-            output -> m_swerve.drive(0, 0, output, false),
-            m_swerve
-        );
+        m_angleRadians = Math.toRadians(angle);
+        this.m_swerve = m_swerve;
 
-        getController().setTolerance(3);
+        m_controller.enableContinuousInput(-Math.PI, Math.PI);
+        m_controller.setTolerance(Constants.Auto.kTurnPositionTolerance, Constants.Auto.kTurnVelocityTolerance);
 
-        this.m_swerve = m_swerve;
+        addRequirements(m_swerve);
+    }
+
+    ////getHeading() and getTurnRate() are clockwise positive, drive() turns counter-clockwise for positive
+    private double getHeadingRadians()
+    {
+        return -Math.toRadians(m_swerve.getHeading());
+    }
+
+    private double getTurnRateRadians()
+    {
+        return -Math.toRadians(m_swerve.getTurnRate());
+    }
+
+    @Override
+    public void initialize()
+    {
+        ////the goal is taken when the command starts, not when it is built, and the profile
+        ////starts from however fast the robot is already turning
+        double heading = getHeadingRadians();
+        ////drive() slew-limits the rotation and the wheels saturate at full rate, so the profile stays under both
+        m_controller.setConstraints(new TrapezoidProfile.Constraints(
+            Constants.Swerve.kMaxAngularSpeed * Constants.Auto.kTurnProfileScale,
+            m_swerve.getMaxAngularAccel() * Constants.Auto.kTurnProfileScale));
+        m_controller.reset(heading, getTurnRateRadians());
+        m_controller.setGoal(MathUtil.angleModulus(heading + m_angleRadians));
+    }
+
+    @Override
+    public void execute()
+    {
+        double correction = m_controller.calculate(getHeadingRadians());
+        double setpointVelocity = m_controller.getSetpoint().velocity;
+
+        ////feed forward the profile's rate and correct with the gyro's measured rate instead of a noisy derivative
+        double output = setpointVelocity + correction
+            + Constants.Auto.kTurnRateP * (setpointVelocity - getTurnRateRadians());
+
+        m_swerve.drive(0, 0, output, false);
     }
 
     @Override
     public boolean isFinished()
     {
-        return getController().atSetpoint();    //  This command will terminate once the desired distance has been reached.
+        //  This command will terminate once the robot is on the angle and has stopped turning.
+        return m_controller.atGoal()
+            && Math.abs(getTurnRateRadians()) < Constants.Auto.kTurnVelocityTolerance;
     }
-    
+
     @Override
     public void end(boolean interrupted) {
         m_swerve.drive(0, 0, 0, false);
@@ -0,0 +1,144 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.commands.drive;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.pathplanner.lib.PathConstraints;
+import com.pathplanner.lib.PathPlanner;
+import com.pathplanner.lib.PathPlannerTrajectory;
+import com.pathplanner.lib.PathPoint;
+import com.pathplanner.lib.commands.PPSwerveControllerCommand;
+
+import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.wpilibj2.command.CommandBase;
+import frc.robot.Constants;
+import frc.robot.lib.DataLog;
+import frc.robot.lib.FieldNavigator;
+import frc.robot.lib.FourModuleKinematics;
+import frc.robot.subsystems.Swerve;
+
+/**
+ * Drives to a field pose along a route planned around the field obstacles when
+ * the command starts, so it can be used from anywhere in teleop. The route's
+ * corners are smoothed into a PathPlanner trajectory that starts at the robot's
+ * current velocity, and the robot turns to the goal heading along the way.
+ */
+public class DriveToPose extends CommandBase {
+  private final Swerve m_swerve;
+  private final FieldNavigator m_navigator;
+  private final Supplier<Pose2d> m_goal;
+  private final PathConstraints m_constraints = new PathConstraints(
+      Constants.Swerve.kMaxSpeedMetersPerSecond * Constants.Auto.kPathSpeedScale,
+      Constants.Swerve.kMaxAccel * Constants.Auto.kPathAccelScale);
+
+  // The follower for the current route, or null if no route was found
+  private PPSwerveControllerCommand m_follower;
+
+  /**
+   * @param swerve the drivetrain
+   * @param navigator the route planner
+   * @param goal the pose to drive to, read when the command starts; null means stay put
+   */
+  public DriveToPose(Swerve swerve, FieldNavigator navigator, Supplier<Pose2d> goal) {
+    m_swerve = swerve;
+    m_navigator = navigator;
+    m_goal = goal;
+
+    addRequirements(m_swerve);
+  }
+
+  @Override
+  public void initialize() {
+    Pose2d start = m_swerve.getPose();
+    Pose2d goal = m_goal.get();
+    m_follower = null;
+    if (goal == null) {
+      DataLog.log("DriveToPose: no goal");
+      return;
+    }
+    List<Translation2d> route = m_navigator.findRoute(start.getTranslation(), goal.getTranslation());
+    if (route.size() < 2) {
+      DataLog.log("DriveToPose: no route to " + goal);
+      return;
+    }
+
+    PathPlannerTrajectory trajectory = PathPlanner.generatePath(m_constraints, toPathPoints(start, goal, route));
+    m_follower = new PPSwerveControllerCommand(
+        trajectory,
+        m_swerve::getPose,
+        new FourModuleKinematics(Constants.Swerve.kModuleTranslations),
+        new PIDController(Constants.Auto.kPathTranslationP, 0, 0),
+        new PIDController(Constants.Auto.kPathTranslationP, 0, 0),
+        new PIDController(Constants.Auto.kPathRotationP, 0, 0),
+        m_swerve::setModuleStates,
+        false);
+    m_follower.initialize();
+  }
+
+  /**
+   * Turns the route's corners into path points. Each point's heading is the
+   * direction of travel through it, halfway between the way in and the way out,
+   * and the first point carries the robot's current velocity.
+   */
+  private List<PathPoint> toPathPoints(Pose2d start, Pose2d goal, List<Translation2d> route) {
+    ChassisSpeeds speeds = m_swerve.getChassisSpeeds();
+    Translation2d velocity = new Translation2d(speeds.vxMetersPerSecond, speeds.vyMetersPerSecond)
+        .rotateBy(start.getRotation());
+
+    List<PathPoint> points = new ArrayList<>();
+    for (int i = 0; i < route.size(); i++) {
+      Translation2d point = route.get(i);
+      Translation2d in = i > 0 ? point.minus(route.get(i - 1)) : new Translation2d();
+      Translation2d out = i < route.size() - 1 ? route.get(i + 1).minus(point) : new Translation2d();
+      Translation2d direction = unit(in).plus(unit(out));
+      if (direction.getNorm() < 1e-6) {
+        direction = out.getNorm() > 1e-6 ? out : in;
+      }
+
+      if (i == 0) {
+        // Carry on in the direction the robot is already moving
+        double speed = velocity.getNorm();
+        Rotation2d heading = speed > 0.1 ? velocity.getAngle() : direction.getAngle();
+        points.add(new PathPoint(point, heading, start.getRotation(), speed));
+      } else {
+        points.add(new PathPoint(point, direction.getAngle(), goal.getRotation()));
+      }
+    }
+    return points;
+  }
+
+  private static Translation2d unit(Translation2d vector) {
+    double norm = vector.getNorm();
+    return norm > 1e-6 ? vector.div(norm) : new Translation2d();
+  }
+
+  @Override
+  public void execute() {
+    if (m_follower != null) {
+      m_follower.execute();
+    }
+  }
+
+  @Override
+  public boolean isFinished() {
+    return m_follower == null || m_follower.isFinished();
+  }
+
+  @Override
+  public void end(boolean interrupted) {
+    if (m_follower != null) {
+      m_follower.end(interrupted);
+    }
+    m_swerve.drive(0, 0, 0, false);
+  }
+}
@@ -5,37 +5,93 @@
 
 package frc.robot.commands.drive;
 
-import java.util.function.DoubleSupplier;
-
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.controller.ProfiledPIDController;
+import edu.wpi.first.math.trajectory.TrapezoidProfile;
 import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.robot.Constants;
+import frc.robot.lib.DriveInputShaper;
 import frc.robot.subsystems.Swerve;
 
 public class DriveWithJoysticks extends CommandBase {
   private final Swerve m_swerve;
-  private final DoubleSupplier m_translationXSupplier;
-  private final DoubleSupplier m_translationYSupplier;
-  private final DoubleSupplier m_rotationSupplier;
-  
-
-  public DriveWithJoysticks(Swerve swerve,
-  DoubleSupplier translationXSupplier,
-  DoubleSupplier translationYSupplier,
-  DoubleSupplier rotationSupplier) {
+  private final DriveInputShaper m_input;
+
+  // Holds the heading while the rotation stick is released, and turns to snap angles
+  private final ProfiledPIDController m_headingController = new ProfiledPIDController(
+      Constants.Auto.kTurnP, 0, 0,
+      new TrapezoidProfile.Constraints(Constants.Swerve.kMaxAngularSpeed, Constants.Swerve.kMaxAngularAccel));
+
+  // The heading being held, in radians counter-clockwise, or NaN while the driver is rotating
+  private double m_targetHeading = Double.NaN;
+
+
+  public DriveWithJoysticks(Swerve swerve, DriveInputShaper input) {
     m_swerve = swerve;
-    m_translationXSupplier = translationXSupplier;
-    m_translationYSupplier = translationYSupplier;
-    m_rotationSupplier = rotationSupplier;
+    m_input = input;
+
+    m_headingController.enableContinuousInput(-Math.PI, Math.PI);
 
-    
     addRequirements(m_swerve);
   }
 
+  /**
+   * Turns the robot to a field angle and holds it there until the driver rotates.
+   *
+   * @param angleDegrees the field angle, counter-clockwise positive
+   */
+  public void snapToAngle(double angleDegrees) {
+    m_targetHeading = MathUtil.angleModulus(Math.toRadians(angleDegrees));
+    resetHeadingController(getHeadingRadians());
+  }
+
+  // Profiles with TurnToAngle's headroom under drive()'s rotation limits, which follow the drive mode
+  private void resetHeadingController(double heading) {
+    m_headingController.setConstraints(new TrapezoidProfile.Constraints(
+        Constants.Swerve.kMaxAngularSpeed * Constants.Auto.kTurnProfileScale,
+        m_swerve.getMaxAngularAccel() * Constants.Auto.kTurnProfileScale));
+    m_headingController.reset(heading, getTurnRateRadians());
+  }
+
+  // getHeading() and getTurnRate() are clockwise positive, drive() turns counter-clockwise for positive
+  private double getHeadingRadians() {
+    return -Math.toRadians(m_swerve.getHeading());
+  }
+
+  private double getTurnRateRadians() {
+    return -Math.toRadians(m_swerve.getTurnRate());
+  }
+
+  @Override
+  public void initialize() {
+    m_targetHeading = Double.NaN;
+  }
+
   @Override
   public void execute() {
-   m_swerve.drive(m_translationXSupplier.getAsDouble() * Constants.Swerve.kMaxSpeedMetersPerSecond, 
-   m_translationYSupplier.getAsDouble() * Constants.Swerve.kMaxSpeedMetersPerSecond, 
-   m_rotationSupplier.getAsDouble() * Constants.Swerve.kMaxAngularSpeed, 
+    m_input.setScale(m_swerve.getTranslationScale(), m_swerve.getRotationScale());
+    m_input.update();
+    double rotation = m_input.getRotation() * Constants.Swerve.kMaxAngularSpeed;
+
+    if (rotation != 0) {
+      // The stick is outside the deadband, so the driver is in control of rotation
+      m_targetHeading = Double.NaN;
+    } else if (Double.isNaN(m_targetHeading)) {
+      // Wait for the robot to stop turning before locking the heading, so it doesn't swing back
+      if (Math.abs(getTurnRateRadians()) < Constants.Controllers.kHeadingHoldCaptureRate) {
+        m_targetHeading = getHeadingRadians();
+        resetHeadingController(m_targetHeading);
+      }
+    }
+
+    if (!Double.isNaN(m_targetHeading)) {
+      double correction = m_headingController.calculate(getHeadingRadians(), m_targetHeading);
+      rotation = m_headingController.getSetpoint().velocity + correction;
+    }
+
+   m_swerve.drive(m_input.getX() * Constants.Swerve.kMaxSpeedMetersPerSecond,
+   m_input.getY() * Constants.Swerve.kMaxSpeedMetersPerSecond,
+   rotation,
    true);
   }
 
@@ -0,0 +1,114 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.Command;
+
+import frc.robot.Constants;
+import frc.robot.Robot;
+import frc.robot.lib.TaskScheduler.Priority;
+
+/**
+ * The autonomous routines, chosen on the dashboard and built on demand.
+ *
+ * <p>Each routine is registered as a factory, so nothing is built until it is
+ * selected. While the robot is disabled, the selected routine is built in a
+ * low priority background task whenever the selection changes, and is kept
+ * ready. Taking the command for autonomous then only hands over the prepared
+ * one, and a fresh one is prepared for the next match. If the selection changed
+ * too late for the task to pick it up, the routine is built on the spot and
+ * that is logged.
+ *
+ * <p>The build runs on the main thread like the rest of the robot's tasks,
+ * since commands and the scheduler's record of composed commands are not
+ * thread-safe. A factory that ever needs heavy precomputation (e.g. path
+ * generation) should do only that part on another thread and still build the
+ * command here.
+ */
+public class AutoRegistry {
+  /** A built routine and the name it was built for. */
+  private static final class Prepared {
+    final String name;
+    final Command command;
+
+    Prepared(String name, Command command) {
+      this.name = name;
+      this.command = command;
+    }
+  }
+
+  private final Map<String, Supplier<Command>> m_factories = new LinkedHashMap<>();
+  private final SendableChooser<String> m_chooser = new SendableChooser<>();
+
+  private Prepared m_prepared = null;
+
+  /** Publishes the chooser and starts watching it. */
+  public AutoRegistry() {
+    SmartDashboard.putData(m_chooser);
+    Robot.addCustomPeriodic("AutoRegistry", this::update, Constants.AutoRegistry.kUpdatePeriodSeconds, Priority.LOW);
+  }
+
+  /** Adds the routine selected when nothing else is. */
+  public void addDefault(String name, Supplier<Command> factory) {
+    m_factories.put(name, factory);
+    m_chooser.setDefaultOption(name, name);
+  }
+
+  /** Adds a routine. */
+  public void add(String name, Supplier<Command> factory) {
+    m_factories.put(name, factory);
+    m_chooser.addOption(name, name);
+  }
+
+  /** Prepares the selected routine again if the selection changed. Only done while disabled. */
+  private void update() {
+    String selected = m_chooser.getSelected();
+    if (!DriverStation.isDisabled() || selected == null
+        || (m_prepared != null && selected.equals(m_prepared.name))) {
+      return;
+    }
+    Supplier<Command> factory = m_factories.get(selected);
+    if (factory == null) {
+      return;
+    }
+    long start = System.nanoTime();
+    m_prepared = new Prepared(selected, factory.get());
+    DataLog.log(String.format("Auto: prepared %s in %.1f ms", selected, (System.nanoTime() - start) * 1e-6));
+  }
+
+  /**
+   * Hands over the selected routine for autonomous. It is the prepared one
+   * unless the selection has changed since it was built; a new one is
+   * prepared for the next time the robot is disabled.
+   *
+   * @return the command, or null if nothing is selected
+   */
+  public Command getSelected() {
+    String selected = m_chooser.getSelected();
+    Prepared prepared = m_prepared;
+    m_prepared = null;
+    if (selected == null) {
+      return null;
+    }
+    if (prepared != null && prepared.name.equals(selected)) {
+      return prepared.command;
+    }
+
+    Supplier<Command> factory = m_factories.get(selected);
+    if (factory == null) {
+      return null;
+    }
+    DataLog.log("Auto: " + selected + " was not prepared, building it now");
+    return factory.get();
+  }
+}
@@ -0,0 +1,243 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.util.datalog.StringLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.Subsystem;
+
+import frc.robot.Constants;
+import frc.robot.Robot;
+import frc.robot.lib.TaskScheduler.Priority;
+
+/**
+ * Traces commands through the scheduler hooks {@link DataLog} registers.
+ *
+ * <p>Every initialize, execute and end is recorded in the on-robot data log
+ * with its timestamp, under "/commands/". The scheduler has no hook before a
+ * command's execute(), so each execute is timed from the previous hook or from
+ * a marker polled just before the scheduler starts on the commands. That time
+ * also includes the previous command's isFinished(), which is normally
+ * negligible. Each command class gets a histogram of execute() CPU time, and
+ * an execute() over {@link Constants.Tracing#kExecuteBudgetSeconds} of wall
+ * time is counted and logged as an overrun. When a command is interrupted by
+ * another one taking its requirements, the conflict is logged with both names.
+ * The scheduler cancels the conflicting commands and initializes the new one
+ * in the same call, with no other hook in between, so an interrupt is matched
+ * to the next initialize only if nothing else ran since.
+ */
+public final class CommandTrace {
+  private static final ThreadMXBean kThreads = ManagementFactory.getThreadMXBean();
+  private static final boolean kHasCpuTime = kThreads.isCurrentThreadCpuTimeSupported();
+  private static final long kBudgetNanos = (long) (Constants.Tracing.kExecuteBudgetSeconds * 1e9);
+
+  /** Execute statistics for one command class. */
+  private static final class Stats {
+    final String name;
+    final long[] buckets = new long[Constants.Tracing.kHistogramBucketsMicros.length + 1];
+    final DoubleLogEntry cpuLog;
+    long executes = 0;
+    long overruns = 0;
+    long totalCpuNanos = 0;
+    long maxCpuNanos = 0;
+    long maxWallNanos = 0;
+
+    Stats(String name) {
+      this.name = name;
+      cpuLog = new DoubleLogEntry(DataLogManager.getLog(), "/commands/" + name + "/executeCpuMs");
+    }
+
+    void record(long cpuNanos, long wallNanos) {
+      long micros = cpuNanos / 1000;
+      int bucket = 0;
+      while (bucket < Constants.Tracing.kHistogramBucketsMicros.length
+          && micros > Constants.Tracing.kHistogramBucketsMicros[bucket]) {
+        bucket++;
+      }
+      buckets[bucket]++;
+      executes++;
+      totalCpuNanos += cpuNanos;
+      maxCpuNanos = Math.max(maxCpuNanos, cpuNanos);
+      maxWallNanos = Math.max(maxWallNanos, wallNanos);
+      cpuLog.append(cpuNanos * 1e-6);
+    }
+
+    /** @return the upper edge of the bucket the fraction of executes falls in, in milliseconds */
+    double percentileMs(double fraction) {
+      long target = (long) Math.ceil(fraction * executes);
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= target) {
+          return i < Constants.Tracing.kHistogramBucketsMicros.length
+              ? Constants.Tracing.kHistogramBucketsMicros[i] / 1000.0
+              : maxCpuNanos * 1e-6;
+        }
+      }
+      return 0;
+    }
+  }
+
+  /** One scheduled run of a command instance. */
+  private static final class Run {
+    final Stats stats;
+    final double startTime;
+    long executes = 0;
+    boolean overrunLogged = false;
+
+    Run(Stats stats, double startTime) {
+      this.stats = stats;
+      this.startTime = startTime;
+    }
+  }
+
+  private static final Map<String, Stats> m_stats = new HashMap<>();
+  private static final Map<Command, Run> m_runs = new HashMap<>();
+  private static final StringLogEntry m_events = new StringLogEntry(DataLogManager.getLog(), "/commands/events");
+
+  // Times of the last hook or marker, for timing the next execute()
+  private static long m_markWallNanos = System.nanoTime();
+  private static long m_markCpuNanos = cpuNanos();
+
+  // Commands interrupted since the last other hook or marker, to name them if an interrupter starts next
+  private static final List<Command> m_interrupted = new ArrayList<>();
+
+  private CommandTrace() {}
+
+  /**
+   * Starts timing and publishing. Call at the end of robotInit, after the button
+   * bindings, so the marker is polled after every trigger.
+   */
+  public static void start() {
+    CommandScheduler.getInstance().getDefaultButtonLoop().bind(CommandTrace::poll);
+    Robot.addCustomPeriodic("CommandTrace", CommandTrace::publish, Constants.Tracing.kPublishPeriodSeconds,
+        Priority.LOW);
+  }
+
+  private static long cpuNanos() {
+    return kHasCpuTime ? kThreads.getCurrentThreadCpuTime() : System.nanoTime();
+  }
+
+  private static void mark() {
+    m_markWallNanos = System.nanoTime();
+    m_markCpuNanos = cpuNanos();
+  }
+
+  /** The marker, polled after the triggers: a cancel from a trigger has no interrupter. */
+  private static void poll() {
+    m_interrupted.clear();
+    mark();
+  }
+
+  private static Stats getStats(Command command) {
+    return m_stats.computeIfAbsent(command.getClass().getSimpleName(), Stats::new);
+  }
+
+  /** Records a command starting. The scheduler initializes a command as soon as it is scheduled. */
+  static void initialize(Command command) {
+    double now = Timer.getFPGATimestamp();
+    Stats stats = getStats(command);
+    m_runs.put(command, new Run(stats, now));
+    m_events.append("init " + stats.name + " " + describe(command.getRequirements()));
+
+    for (Command interrupted : m_interrupted) {
+      for (Subsystem requirement : command.getRequirements()) {
+        if (interrupted.getRequirements().contains(requirement)) {
+          String interruptedName = interrupted.getClass().getSimpleName();
+          DataLog.log("--> " + stats.name + " took " + requirement.getClass().getSimpleName()
+              + " from " + interruptedName);
+          m_events.append("conflict " + stats.name + " interrupted " + interruptedName);
+          break;
+        }
+      }
+    }
+    m_interrupted.clear();
+    mark();
+  }
+
+  /** Records one execute(), timed from the last hook or marker. */
+  static void execute(Command command) {
+    long wallNanos = System.nanoTime() - m_markWallNanos;
+    long cpuNanos = cpuNanos() - m_markCpuNanos;
+
+    Run run = m_runs.get(command);
+    if (run != null) {
+      run.executes++;
+      run.stats.record(cpuNanos, wallNanos);
+      if (wallNanos > kBudgetNanos) {
+        run.stats.overruns++;
+        m_events.append(String.format("overrun %s %.2f ms", run.stats.name, wallNanos * 1e-6));
+        // Only the first overrun of a run goes to the console, printing every loop would make it worse
+        if (!run.overrunLogged) {
+          run.overrunLogged = true;
+          DataLog.log(String.format("--> Overrun: %s execute() took %.2f ms", run.stats.name, wallNanos * 1e-6));
+        }
+      }
+    }
+    m_interrupted.clear();
+    mark();
+  }
+
+  /** Records a command ending, with how long it ran. */
+  static void end(Command command, boolean isInterrupted) {
+    double now = Timer.getFPGATimestamp();
+    Run run = m_runs.remove(command);
+    String name = command.getClass().getSimpleName();
+    if (run != null) {
+      m_events.append(String.format("%s %s after %.3f s, %d executes",
+          isInterrupted ? "interrupt" : "end", name, now - run.startTime, run.executes));
+    }
+    if (isInterrupted) {
+      m_interrupted.add(command);
+    } else {
+      m_interrupted.clear();
+    }
+    mark();
+  }
+
+  private static String describe(Set<Subsystem> requirements) {
+    StringBuilder builder = new StringBuilder("[");
+    for (Subsystem requirement : requirements) {
+      if (builder.length() > 1) {
+        builder.append(", ");
+      }
+      builder.append(requirement.getClass().getSimpleName());
+    }
+    return builder.append(']').toString();
+  }
+
+  /** Publishes the per-command statistics under "Commands/". */
+  private static void publish() {
+    if (!LoopGovernor.isEnabled(LoopGovernor.Work.DIAGNOSTICS)) {
+      return;
+    }
+    for (Stats stats : m_stats.values()) {
+      if (stats.executes == 0) {
+        continue;
+      }
+      String prefix = "Commands/" + stats.name + "/";
+      SmartDashboard.putNumber(prefix + "Executes", stats.executes);
+      SmartDashboard.putNumber(prefix + "MeanCpuMs", stats.totalCpuNanos * 1e-6 / stats.executes);
+      SmartDashboard.putNumber(prefix + "P95CpuMs", stats.percentileMs(0.95));
+      SmartDashboard.putNumber(prefix + "MaxCpuMs", stats.maxCpuNanos * 1e-6);
+      SmartDashboard.putNumber(prefix + "MaxWallMs", stats.maxWallNanos * 1e-6);
+      SmartDashboard.putNumber(prefix + "Overruns", stats.overruns);
+    }
+  }
+}
@@ -17,7 +17,8 @@ import edu.wpi.first.wpilibj2.command.CommandScheduler;
 
 /**
  * This class provides methods for logging messages to the RioLog as the robot
- * starts, the robot mode changes, and as commands start and end.
+ * starts, the robot mode changes, and as commands start and end. The command
+ * hooks also feed {@link CommandTrace}.
  */
 public final class DataLog {
 
@@ -26,11 +27,13 @@ public final class DataLog {
     DriverStation.startDataLog(DataLogManager.getLog());
 
     CommandScheduler.getInstance().
-      onCommandInitialize(command -> init(command));
+      onCommandInitialize(command -> { init(command); CommandTrace.initialize(command); });
     CommandScheduler.getInstance().
-      onCommandInterrupt(command -> end(command, true));
+      onCommandExecute(command -> CommandTrace.execute(command));
     CommandScheduler.getInstance().
-      onCommandFinish(command -> end(command, false));
+      onCommandInterrupt(command -> { end(command, true); CommandTrace.end(command, true); });
+    CommandScheduler.getInstance().
+      onCommandFinish(command -> { end(command, false); CommandTrace.end(command, false); });
   }
 
   /**
@@ -0,0 +1,38 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.util.sendable.Sendable;
+
+/**
+ * The gyro readings the drivetrain uses, with the same conventions as
+ * {@link NavX}: {@link #getAngle()} and {@link #getRate()} are clockwise
+ * positive, {@link #getYaw()} and {@link #getRotation2d()} counter-clockwise.
+ */
+public interface DriveGyro extends Sendable {
+  /** @return the continuous heading, in degrees clockwise */
+  double getAngle();
+
+  /** @return the turn rate, in degrees per second clockwise */
+  double getRate();
+
+  /** @return the heading from -180 to 180, in degrees counter-clockwise */
+  float getYaw();
+
+  float getPitch();
+
+  float getRoll();
+
+  /** @return the heading, counter-clockwise positive */
+  Rotation2d getRotation2d();
+
+  /** @return the yaw rate, in radians per second counter-clockwise */
+  double getYawRateRadians();
+
+  /** Zeroes the heading. */
+  void reset();
+}
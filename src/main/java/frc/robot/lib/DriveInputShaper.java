@@ -0,0 +1,172 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.util.function.DoubleSupplier;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import frc.robot.Constants;
+
+/**
+ * Turns raw driver stick readings into drive commands, one stage after another:
+ * a radial deadband on the translation stick (so diagonals are not cut short by
+ * a square deadzone), a response curve, speed scaling, and a per-axis rate
+ * limit. Every stage works on primitive fields so {@link #update()} allocates
+ * nothing in the 50 Hz loop. The settings are published under "Input/" and
+ * read back once a second, so they can be tuned live from the dashboard.
+ */
+public class DriveInputShaper {
+  public enum Curve { LINEAR, SQUARED, CUBIC, EXPONENTIAL }
+
+  private final DoubleSupplier m_rawX;
+  private final DoubleSupplier m_rawY;
+  private final DoubleSupplier m_rawRotation;
+
+  private final SendableChooser<Curve> m_curveChooser = new SendableChooser<>();
+
+  // Settings, refreshed from the dashboard by refreshSettings()
+  private double m_translationDeadband = Constants.Controllers.kTranslationDeadband;
+  private double m_rotationDeadband = Constants.Controllers.kRotationDeadband;
+  private Curve m_curve = Constants.Controllers.kDefaultCurve;
+  private double m_exponent = Constants.Controllers.kCurveExponent;
+  private double m_cubicWeight = Constants.Controllers.kCubicWeight;
+  private double m_translationRateLimit = Constants.Controllers.kTranslationRateLimit;
+  private double m_rotationRateLimit = Constants.Controllers.kRotationRateLimit;
+
+  private double m_translationScale = 1;
+  private double m_rotationScale = 1;
+
+  // Outputs of the last update, from -1 to 1
+  private double m_x = 0;
+  private double m_y = 0;
+  private double m_rotation = 0;
+  private double m_lastTime = Double.NaN;
+
+  /**
+   * @param rawX forward stick reading
+   * @param rawY sideways stick reading
+   * @param rawRotation rotation stick reading
+   */
+  public DriveInputShaper(DoubleSupplier rawX, DoubleSupplier rawY, DoubleSupplier rawRotation) {
+    m_rawX = rawX;
+    m_rawY = rawY;
+    m_rawRotation = rawRotation;
+
+    for (Curve curve : Curve.values()) {
+      if (curve == m_curve) {
+        m_curveChooser.setDefaultOption(curve.name(), curve);
+      } else {
+        m_curveChooser.addOption(curve.name(), curve);
+      }
+    }
+    SmartDashboard.putData("Input/Curve", m_curveChooser);
+    SmartDashboard.setDefaultNumber("Input/TranslationDeadband", m_translationDeadband);
+    SmartDashboard.setDefaultNumber("Input/RotationDeadband", m_rotationDeadband);
+    SmartDashboard.setDefaultNumber("Input/Exponent", m_exponent);
+    SmartDashboard.setDefaultNumber("Input/CubicWeight", m_cubicWeight);
+    SmartDashboard.setDefaultNumber("Input/TranslationRateLimit", m_translationRateLimit);
+    SmartDashboard.setDefaultNumber("Input/RotationRateLimit", m_rotationRateLimit);
+  }
+
+  /** Reads the tuning values back from the dashboard. Runs from a slow custom periodic, not every loop. */
+  public void refreshSettings() {
+    m_translationDeadband = MathUtil.clamp(
+        SmartDashboard.getNumber("Input/TranslationDeadband", m_translationDeadband), 0, 0.5);
+    m_rotationDeadband = MathUtil.clamp(
+        SmartDashboard.getNumber("Input/RotationDeadband", m_rotationDeadband), 0, 0.5);
+    m_exponent = Math.max(0.1, SmartDashboard.getNumber("Input/Exponent", m_exponent));
+    m_cubicWeight = MathUtil.clamp(SmartDashboard.getNumber("Input/CubicWeight", m_cubicWeight), 0, 1);
+    m_translationRateLimit = SmartDashboard.getNumber("Input/TranslationRateLimit", m_translationRateLimit);
+    m_rotationRateLimit = SmartDashboard.getNumber("Input/RotationRateLimit", m_rotationRateLimit);
+    Curve curve = m_curveChooser.getSelected();
+    if (curve != null) {
+      m_curve = curve;
+    }
+  }
+
+  /**
+   * Sets how much of full speed the sticks ask for.
+   *
+   * @param translationScale fraction of full translation speed
+   * @param rotationScale fraction of full rotation speed
+   */
+  public void setScale(double translationScale, double rotationScale) {
+    m_translationScale = translationScale;
+    m_rotationScale = rotationScale;
+  }
+
+  /** Reads the sticks and runs them through the pipeline. Call once per loop before the getters. */
+  public void update() {
+    double now = Timer.getFPGATimestamp();
+    double dt = Double.isNaN(m_lastTime) ? 0 : now - m_lastTime;
+    m_lastTime = now;
+
+    // Radial deadband and curve on the stick's magnitude, keeping its direction
+    double rawX = m_rawX.getAsDouble();
+    double rawY = m_rawY.getAsDouble();
+    double magnitude = Math.hypot(rawX, rawY);
+    double x = 0;
+    double y = 0;
+    if (magnitude > m_translationDeadband) {
+      double shaped = shape(deadband(Math.min(magnitude, 1), m_translationDeadband)) * m_translationScale;
+      x = rawX / magnitude * shaped;
+      y = rawY / magnitude * shaped;
+    }
+
+    double rawRotation = m_rawRotation.getAsDouble();
+    double rotation = Math.copySign(
+        shape(deadband(Math.min(Math.abs(rawRotation), 1), m_rotationDeadband)), rawRotation) * m_rotationScale;
+
+    m_x = rateLimit(m_x, x, m_translationRateLimit, dt);
+    m_y = rateLimit(m_y, y, m_translationRateLimit, dt);
+    m_rotation = rateLimit(m_rotation, rotation, m_rotationRateLimit, dt);
+  }
+
+  public double getX() {
+    return m_x;
+  }
+
+  public double getY() {
+    return m_y;
+  }
+
+  public double getRotation() {
+    return m_rotation;
+  }
+
+  /** Rescales a magnitude so the output starts at zero at the edge of the deadband. */
+  private static double deadband(double magnitude, double deadband) {
+    return magnitude > deadband ? (magnitude - deadband) / (1.0 - deadband) : 0.0;
+  }
+
+  /** Applies the response curve to a magnitude from 0 to 1. */
+  private double shape(double magnitude) {
+    switch (m_curve) {
+      case SQUARED:
+        return magnitude * magnitude;
+      case CUBIC:
+        return m_cubicWeight * magnitude * magnitude * magnitude + (1 - m_cubicWeight) * magnitude;
+      case EXPONENTIAL:
+        return Math.expm1(m_exponent * magnitude) / Math.expm1(m_exponent);
+      case LINEAR:
+      default:
+        return magnitude;
+    }
+  }
+
+  /** Moves toward the target by at most rate * dt. A rate of zero or less turns the limit off. */
+  private static double rateLimit(double current, double target, double rate, double dt) {
+    if (rate <= 0) {
+      return target;
+    }
+    double maxStep = rate * dt;
+    return current + MathUtil.clamp(target - current, -maxStep, maxStep);
+  }
+}
@@ -0,0 +1,440 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.util.Arrays;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+
+import frc.robot.Constants;
+
+/**
+ * Estimates the robot's field pose from wheel odometry, the gyro and delayed
+ * vision measurements, with a three-state (x, y, heading) extended Kalman
+ * filter.
+ *
+ * <p>The pose is kept as dead-reckoned odometry (wheels for translation, the
+ * gyro for heading) plus a correction: the transform from the odometry frame
+ * to the field. Each update moves the odometry and grows the 3x3 covariance
+ * with the distance driven and the angle turned. A vision measurement taken at
+ * some earlier time is compared with the odometry at that time, read from a
+ * fixed ring of recent samples, seen through the current correction. The
+ * filter gain comes from the covariance at that time, and the correction is
+ * moved by the result. The motion since then is carried over as it was
+ * measured, so nothing is replayed; only the recorded covariances since then
+ * shrink with the current one. Apart from the odometry twist and the returned pose,
+ * updates and vision measurements do not allocate.
+ *
+ * <p>{@link #update}, {@link #resetPosition} and {@link #getEstimatedPosition}
+ * match {@code SwerveDrivePoseEstimator}'s, so it drops in for it.
+ */
+public class DrivePoseEstimator {
+  private static final int kHistorySize = Constants.PoseEstimator.kHistorySize;
+
+  private final SwerveDriveKinematics m_kinematics;
+
+  // Odometry pose, in the odometry frame
+  private double m_odometryX = 0;
+  private double m_odometryY = 0;
+  private double m_odometryTheta;
+
+  // Transform from the odometry frame to the field
+  private double m_correctionX;
+  private double m_correctionY;
+  private double m_correctionTheta;
+
+  // Covariance of the field pose, row-major 3x3
+  private final double[] m_covariance = new double[9];
+
+  private final double[] m_lastDistances = new double[4];
+  private double m_lastGyro;
+  private double m_lastTime = Double.NaN;
+  private final SwerveModulePosition[] m_deltas = {
+    new SwerveModulePosition(), new SwerveModulePosition(), new SwerveModulePosition(), new SwerveModulePosition()};
+
+  // Ring of recent samples: time, odometry pose and covariance
+  private final double[] m_historyTime = new double[kHistorySize];
+  private final double[] m_historyX = new double[kHistorySize];
+  private final double[] m_historyY = new double[kHistorySize];
+  private final double[] m_historyTheta = new double[kHistorySize];
+  private final double[][] m_historyCovariance = new double[kHistorySize][9];
+  private int m_historyStart = 0;
+  private int m_historyCount = 0;
+
+  // Scratch space for the vision update
+  private final double[] m_pastCovariance = new double[9];
+  private final double[] m_gain = new double[9];
+  private final double[] m_scratch = new double[9];
+  private final double[] m_scratch2 = new double[9];
+  private final double[] m_reduction = new double[9];
+
+  private double[] m_visionVariances;
+
+  /**
+   * @param kinematics the drivetrain's kinematics
+   * @param gyroAngle the gyro heading, counter-clockwise positive
+   * @param modulePositions the module positions, in kinematics order
+   * @param initialPose where the robot starts
+   */
+  public DrivePoseEstimator(SwerveDriveKinematics kinematics, Rotation2d gyroAngle,
+      SwerveModulePosition[] modulePositions, Pose2d initialPose) {
+    m_kinematics = kinematics;
+    setVisionMeasurementStdDevs(Constants.PoseEstimator.kVisionStdDevs);
+    resetPosition(gyroAngle, modulePositions, initialPose);
+  }
+
+  /**
+   * Sets how much vision measurements are trusted by default.
+   *
+   * @param stdDevs the standard deviations of x and y in meters and heading in radians
+   */
+  public void setVisionMeasurementStdDevs(double[] stdDevs) {
+    m_visionVariances = new double[] {stdDevs[0] * stdDevs[0], stdDevs[1] * stdDevs[1], stdDevs[2] * stdDevs[2]};
+  }
+
+  /**
+   * Resets the estimate to a known pose, forgetting the history.
+   *
+   * @param gyroAngle the gyro heading, counter-clockwise positive
+   * @param modulePositions the module positions, in kinematics order
+   * @param pose the robot's pose
+   */
+  public void resetPosition(Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d pose) {
+    for (int i = 0; i < 4; i++) {
+      m_lastDistances[i] = modulePositions[i].distanceMeters;
+    }
+    m_lastGyro = gyroAngle.getRadians();
+    m_odometryX = 0;
+    m_odometryY = 0;
+    m_odometryTheta = m_lastGyro;
+    setCorrection(pose.getX(), pose.getY(), pose.getRotation().getRadians(), 0, 0, m_odometryTheta);
+
+    double[] stdDevs = Constants.PoseEstimator.kInitialStdDevs;
+    Arrays.fill(m_covariance, 0);
+    m_covariance[0] = stdDevs[0] * stdDevs[0];
+    m_covariance[4] = stdDevs[1] * stdDevs[1];
+    m_covariance[8] = stdDevs[2] * stdDevs[2];
+    m_historyCount = 0;
+    m_lastTime = Double.NaN;
+  }
+
+  /** @return the estimated field pose */
+  public Pose2d getEstimatedPosition() {
+    double cos = Math.cos(m_correctionTheta);
+    double sin = Math.sin(m_correctionTheta);
+    return new Pose2d(
+        m_correctionX + cos * m_odometryX - sin * m_odometryY,
+        m_correctionY + sin * m_odometryX + cos * m_odometryY,
+        new Rotation2d(m_correctionTheta + m_odometryTheta));
+  }
+
+  /** @return the standard deviations of the estimate's x, y and heading */
+  public double[] getStdDevs() {
+    return new double[] {Math.sqrt(m_covariance[0]), Math.sqrt(m_covariance[4]), Math.sqrt(m_covariance[8])};
+  }
+
+  /** @return a copy of the estimate's covariance, row-major 3x3 */
+  double[] getCovariance() {
+    return m_covariance.clone();
+  }
+
+  /**
+   * Moves the estimate by the odometry since the last update.
+   *
+   * @param time the FPGA time of the readings, in seconds
+   * @param gyroAngle the gyro heading, counter-clockwise positive
+   * @param modulePositions the module positions, in kinematics order
+   * @return the estimated field pose
+   */
+  public Pose2d update(double time, Rotation2d gyroAngle, SwerveModulePosition[] modulePositions) {
+    for (int i = 0; i < 4; i++) {
+      m_deltas[i].distanceMeters = modulePositions[i].distanceMeters - m_lastDistances[i];
+      m_deltas[i].angle = modulePositions[i].angle;
+      m_lastDistances[i] = modulePositions[i].distanceMeters;
+    }
+    Twist2d twist = m_kinematics.toTwist2d(m_deltas);
+    // The gyro measures the turn better than the wheels do
+    double gyro = gyroAngle.getRadians();
+    double dtheta = MathUtil.angleModulus(gyro - m_lastGyro);
+    m_lastGyro = gyro;
+
+    // Pose exponential: drive along the arc the twist describes
+    double sinTerm;
+    double cosTerm;
+    if (Math.abs(dtheta) < 1e-9) {
+      sinTerm = 1 - dtheta * dtheta / 6;
+      cosTerm = dtheta / 2;
+    } else {
+      sinTerm = Math.sin(dtheta) / dtheta;
+      cosTerm = (1 - Math.cos(dtheta)) / dtheta;
+    }
+    double localX = twist.dx * sinTerm - twist.dy * cosTerm;
+    double localY = twist.dx * cosTerm + twist.dy * sinTerm;
+    double cos = Math.cos(m_odometryTheta);
+    double sin = Math.sin(m_odometryTheta);
+    double moveX = cos * localX - sin * localY;
+    double moveY = sin * localX + cos * localY;
+    m_odometryX += moveX;
+    m_odometryY += moveY;
+    m_odometryTheta = MathUtil.angleModulus(m_odometryTheta + dtheta);
+
+    // Covariance: P = F P F' + Q, where the heading error swings the move sideways
+    double fieldCos = Math.cos(m_correctionTheta);
+    double fieldSin = Math.sin(m_correctionTheta);
+    double fieldMoveX = fieldCos * moveX - fieldSin * moveY;
+    double fieldMoveY = fieldSin * moveX + fieldCos * moveY;
+    setJacobian(m_scratch, -fieldMoveY, fieldMoveX);
+    transform(m_scratch, m_covariance, m_covariance);
+
+    double dt = Double.isNaN(m_lastTime) ? 0 : Math.max(0, time - m_lastTime);
+    double translationVariance = Constants.PoseEstimator.kWheelVariancePerMeter * Math.hypot(localX, localY);
+    m_covariance[0] += translationVariance;
+    m_covariance[4] += translationVariance;
+    m_covariance[8] += Constants.PoseEstimator.kGyroVariancePerRadian * Math.abs(dtheta)
+        + Constants.PoseEstimator.kGyroDriftVariancePerSecond * dt;
+    m_lastTime = time;
+
+    record(time);
+    return getEstimatedPosition();
+  }
+
+  /**
+   * Corrects the estimate with a vision measurement, using the default trust.
+   *
+   * @param visionPose the robot's field pose the camera measured
+   * @param timestampSeconds the FPGA time the image was taken
+   */
+  public void addVisionMeasurement(Pose2d visionPose, double timestampSeconds) {
+    correct(visionPose, timestampSeconds, m_visionVariances);
+  }
+
+  /**
+   * Corrects the estimate with a vision measurement.
+   *
+   * @param visionPose the robot's field pose the camera measured
+   * @param timestampSeconds the FPGA time the image was taken
+   * @param stdDevs the measurement's standard deviations of x and y in meters and heading in radians
+   */
+  public void addVisionMeasurement(Pose2d visionPose, double timestampSeconds, double[] stdDevs) {
+    correct(visionPose, timestampSeconds,
+        new double[] {stdDevs[0] * stdDevs[0], stdDevs[1] * stdDevs[1], stdDevs[2] * stdDevs[2]});
+  }
+
+  private void correct(Pose2d visionPose, double timestampSeconds, double[] variances) {
+    if (m_historyCount == 0 || timestampSeconds < m_historyTime[m_historyStart]) {
+      // Older than anything remembered
+      return;
+    }
+
+    // The odometry and covariance when the image was taken
+    int after = findAfter(timestampSeconds);
+    double pastX;
+    double pastY;
+    double pastTheta;
+    if (after < 0) {
+      int newest = index(m_historyCount - 1);
+      pastX = m_historyX[newest];
+      pastY = m_historyY[newest];
+      pastTheta = m_historyTheta[newest];
+      System.arraycopy(m_historyCovariance[newest], 0, m_pastCovariance, 0, 9);
+    } else {
+      int before = index(Math.max(0, after - 1));
+      int next = index(after);
+      double span = m_historyTime[next] - m_historyTime[before];
+      double t = span > 1e-9 ? (timestampSeconds - m_historyTime[before]) / span : 1;
+      pastX = m_historyX[before] + (m_historyX[next] - m_historyX[before]) * t;
+      pastY = m_historyY[before] + (m_historyY[next] - m_historyY[before]) * t;
+      pastTheta = m_historyTheta[before] + MathUtil.angleModulus(m_historyTheta[next] - m_historyTheta[before]) * t;
+      for (int i = 0; i < 9; i++) {
+        m_pastCovariance[i] = m_historyCovariance[before][i]
+            + (m_historyCovariance[next][i] - m_historyCovariance[before][i]) * t;
+      }
+    }
+
+    // Where the estimate says the robot was then, and where it is now
+    double cos = Math.cos(m_correctionTheta);
+    double sin = Math.sin(m_correctionTheta);
+    double estimateX = m_correctionX + cos * pastX - sin * pastY;
+    double estimateY = m_correctionY + sin * pastX + cos * pastY;
+    double estimateTheta = m_correctionTheta + pastTheta;
+    double nowX = m_correctionX + cos * m_odometryX - sin * m_odometryY;
+    double nowY = m_correctionY + sin * m_odometryX + cos * m_odometryY;
+
+    // Gain K = P (P + R)^-1, from the covariance at the time of the image
+    System.arraycopy(m_pastCovariance, 0, m_scratch, 0, 9);
+    m_scratch[0] += variances[0];
+    m_scratch[4] += variances[1];
+    m_scratch[8] += variances[2];
+    if (!invert(m_scratch, m_scratch2)) {
+      return;
+    }
+    multiply(m_pastCovariance, m_scratch2, m_gain);
+
+    double innovationX = visionPose.getX() - estimateX;
+    double innovationY = visionPose.getY() - estimateY;
+    double innovationTheta = MathUtil.angleModulus(visionPose.getRotation().getRadians() - estimateTheta);
+    double correctedX = estimateX + m_gain[0] * innovationX + m_gain[1] * innovationY + m_gain[2] * innovationTheta;
+    double correctedY = estimateY + m_gain[3] * innovationX + m_gain[4] * innovationY + m_gain[5] * innovationTheta;
+    double correctedTheta = estimateTheta
+        + m_gain[6] * innovationX + m_gain[7] * innovationY + m_gain[8] * innovationTheta;
+
+    // Move the correction so the past pose lands on the corrected one; the motion since then is kept
+    setCorrection(correctedX, correctedY, correctedTheta, pastX, pastY, pastTheta);
+
+    // The covariance now shrinks by what it shrank then, carried forward: P -= M (K P_past) M'. The
+    // samples since then shrink too, so a later image sees a covariance this one has already corrected
+    multiply(m_gain, m_pastCovariance, m_reduction);
+    shrink(m_covariance, nowX - estimateX, nowY - estimateY);
+    if (after >= 0) {
+      for (int age = after; age < m_historyCount; age++) {
+        int slot = index(age);
+        double dx = m_historyX[slot] - pastX;
+        double dy = m_historyY[slot] - pastY;
+        shrink(m_historyCovariance[slot], cos * dx - sin * dy, sin * dx + cos * dy);
+      }
+    }
+  }
+
+  /**
+   * Takes the vision update's reduction, carried over a field offset, off a
+   * covariance, keeping it symmetric.
+   */
+  private void shrink(double[] covariance, double offsetX, double offsetY) {
+    setJacobian(m_scratch, -offsetY, offsetX);
+    transform(m_scratch, m_reduction, m_scratch2);
+    for (int i = 0; i < 9; i++) {
+      covariance[i] -= m_scratch2[i];
+    }
+    for (int row = 0; row < 3; row++) {
+      covariance[row * 4] = Math.max(covariance[row * 4], 1e-9);
+      for (int column = row + 1; column < 3; column++) {
+        double mean = (covariance[row * 3 + column] + covariance[column * 3 + row]) / 2;
+        covariance[row * 3 + column] = mean;
+        covariance[column * 3 + row] = mean;
+      }
+    }
+  }
+
+  /** Sets the correction so the odometry pose (x, y, theta) maps to the field pose (fieldX, fieldY, fieldTheta). */
+  private void setCorrection(double fieldX, double fieldY, double fieldTheta, double x, double y, double theta) {
+    m_correctionTheta = MathUtil.angleModulus(fieldTheta - theta);
+    double cos = Math.cos(m_correctionTheta);
+    double sin = Math.sin(m_correctionTheta);
+    m_correctionX = fieldX - (cos * x - sin * y);
+    m_correctionY = fieldY - (sin * x + cos * y);
+  }
+
+  private void record(double time) {
+    if (m_historyCount > 0 && time <= m_historyTime[index(m_historyCount - 1)]) {
+      return;
+    }
+    // Drop samples older than the history window, and the oldest if the ring is full
+    while (m_historyCount > 0
+        && (m_historyCount == kHistorySize
+            || time - m_historyTime[m_historyStart] > Constants.PoseEstimator.kHistorySeconds)) {
+      m_historyStart = (m_historyStart + 1) % kHistorySize;
+      m_historyCount--;
+    }
+    int slot = index(m_historyCount);
+    m_historyTime[slot] = time;
+    m_historyX[slot] = m_odometryX;
+    m_historyY[slot] = m_odometryY;
+    m_historyTheta[slot] = m_odometryTheta;
+    System.arraycopy(m_covariance, 0, m_historyCovariance[slot], 0, 9);
+    m_historyCount++;
+  }
+
+  private int index(int age) {
+    return (m_historyStart + age) % kHistorySize;
+  }
+
+  /** @return the position in the history of the first sample at or after the time, or -1 if there is none */
+  private int findAfter(double time) {
+    int low = 0;
+    int high = m_historyCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (m_historyTime[index(middle)] < time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low < m_historyCount ? low : -1;
+  }
+
+  /** The Jacobian of a pose moved by a fixed field offset, with respect to the pose's x, y and heading. */
+  private static void setJacobian(double[] jacobian, double dxdTheta, double dydTheta) {
+    jacobian[0] = 1;
+    jacobian[1] = 0;
+    jacobian[2] = dxdTheta;
+    jacobian[3] = 0;
+    jacobian[4] = 1;
+    jacobian[5] = dydTheta;
+    jacobian[6] = 0;
+    jacobian[7] = 0;
+    jacobian[8] = 1;
+  }
+
+  /** result = a * b, 3x3 row-major; result must not be a or b. */
+  private static void multiply(double[] a, double[] b, double[] result) {
+    for (int row = 0; row < 3; row++) {
+      for (int column = 0; column < 3; column++) {
+        result[row * 3 + column] = a[row * 3] * b[column]
+            + a[row * 3 + 1] * b[3 + column]
+            + a[row * 3 + 2] * b[6 + column];
+      }
+    }
+  }
+
+  /** matrix = jacobian * matrix * jacobian', in place, for a jacobian from {@link #setJacobian}. */
+  private static void transform(double[] jacobian, double[] matrix, double[] result) {
+    double a = jacobian[2];
+    double b = jacobian[5];
+    double m0 = matrix[0], m1 = matrix[1], m2 = matrix[2];
+    double m3 = matrix[3], m4 = matrix[4], m5 = matrix[5];
+    double m6 = matrix[6], m7 = matrix[7], m8 = matrix[8];
+    // J M, with J = [1 0 a; 0 1 b; 0 0 1]
+    double r0 = m0 + a * m6, r1 = m1 + a * m7, r2 = m2 + a * m8;
+    double r3 = m3 + b * m6, r4 = m4 + b * m7, r5 = m5 + b * m8;
+    // (J M) J'
+    result[0] = r0 + r2 * a;
+    result[1] = r1 + r2 * b;
+    result[2] = r2;
+    result[3] = r3 + r5 * a;
+    result[4] = r4 + r5 * b;
+    result[5] = r5;
+    result[6] = m6 + m8 * a;
+    result[7] = m7 + m8 * b;
+    result[8] = m8;
+  }
+
+  /** Inverts a 3x3 row-major matrix. @return false if it is singular */
+  private static boolean invert(double[] m, double[] result) {
+    double c0 = m[4] * m[8] - m[5] * m[7];
+    double c1 = m[5] * m[6] - m[3] * m[8];
+    double c2 = m[3] * m[7] - m[4] * m[6];
+    double determinant = m[0] * c0 + m[1] * c1 + m[2] * c2;
+    if (Math.abs(determinant) < 1e-15) {
+      return false;
+    }
+    result[0] = c0 / determinant;
+    result[1] = (m[2] * m[7] - m[1] * m[8]) / determinant;
+    result[2] = (m[1] * m[5] - m[2] * m[4]) / determinant;
+    result[3] = c1 / determinant;
+    result[4] = (m[0] * m[8] - m[2] * m[6]) / determinant;
+    result[5] = (m[2] * m[3] - m[0] * m[5]) / determinant;
+    result[6] = c2 / determinant;
+    result[7] = (m[1] * m[6] - m[0] * m[7]) / determinant;
+    result[8] = (m[0] * m[4] - m[1] * m[3]) / determinant;
+    return true;
+  }
+}
@@ -0,0 +1,269 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.DriverStation.Alliance;
+import edu.wpi.first.wpilibj.Timer;
+
+import frc.robot.Constants;
+
+/**
+ * The AprilTag field layout and the lookups built from it.
+ *
+ * <p>{@link #load()} runs once in robotInit, so the JSON parse happens at a
+ * known time and a failure is reported to the driver station instead of
+ * leaving a null layout behind. Loading also precomputes each tag's 2-D pose,
+ * its tag-to-field transform, a lookup table of which tags can be seen from
+ * each patch of the field, and the scoring positions in front of both grids.
+ * The queries after that do no allocation and are cheap enough to run every
+ * loop. Tags are referred to by ID, and the visible-tag queries return a mask
+ * with bit {@code id} set for each tag.
+ */
+public final class FieldLayout {
+  private static AprilTagFieldLayout m_layout;
+
+  // Per tag, indexed by ID; null or NaN for IDs not on the field
+  private static Pose3d[] m_tagPoses = new Pose3d[0];
+  private static Pose2d[] m_tagPoses2d = new Pose2d[0];
+  private static Transform3d[] m_tagToField = new Transform3d[0];
+  private static double[] m_tagX = new double[0];
+  private static double[] m_tagY = new double[0];
+  private static double[] m_tagFacingX = new double[0];
+  private static double[] m_tagFacingY = new double[0];
+
+  // Camera mount in the robot frame
+  private static double m_cameraX;
+  private static double m_cameraY;
+  private static double m_cameraYaw;
+
+  // Tags that might be visible from somewhere in each cell, row-major
+  private static int m_columns = 0;
+  private static int m_rows = 0;
+  private static int[] m_cellTags = new int[0];
+
+  private static Pose2d[] m_blueScoring = new Pose2d[0];
+  private static Pose2d[] m_redScoring = new Pose2d[0];
+
+  private FieldLayout() {}
+
+  /** Loads the season's field layout. Call once, early in robotInit. */
+  public static void load() {
+    double start = Timer.getFPGATimestamp();
+    try {
+      load(AprilTagFieldLayout.loadFromResource(Constants.Vision.kFieldLayout.m_resourceFile));
+      DataLog.log(String.format("Field layout: %d tags loaded in %.0f ms",
+          m_layout.getTags().size(), (Timer.getFPGATimestamp() - start) * 1000));
+    } catch (IOException e) {
+      DriverStation.reportError("Could not load the AprilTag field layout: " + e.getMessage(), e.getStackTrace());
+    }
+  }
+
+  /**
+   * Uses the given field layout, e.g. one measured on a practice field, and
+   * rebuilds the lookups from it.
+   */
+  public static void load(AprilTagFieldLayout layout) {
+    int maxId = 0;
+    for (AprilTag tag : layout.getTags()) {
+      if (tag.ID >= Integer.SIZE) {
+        DriverStation.reportWarning("Field layout: ignoring tag " + tag.ID + ", IDs must be below 32", false);
+        continue;
+      }
+      maxId = Math.max(maxId, tag.ID);
+    }
+
+    Pose3d[] poses = new Pose3d[maxId + 1];
+    Pose2d[] poses2d = new Pose2d[maxId + 1];
+    Transform3d[] tagToField = new Transform3d[maxId + 1];
+    double[] tagX = new double[maxId + 1];
+    double[] tagY = new double[maxId + 1];
+    double[] facingX = new double[maxId + 1];
+    double[] facingY = new double[maxId + 1];
+    Arrays.fill(tagX, Double.NaN);
+    Arrays.fill(tagY, Double.NaN);
+    for (AprilTag tag : layout.getTags()) {
+      if (tag.ID >= Integer.SIZE) {
+        continue;
+      }
+      poses[tag.ID] = tag.pose;
+      poses2d[tag.ID] = tag.pose.toPose2d();
+      tagToField[tag.ID] = new Transform3d(tag.pose, new Pose3d());
+      tagX[tag.ID] = poses2d[tag.ID].getX();
+      tagY[tag.ID] = poses2d[tag.ID].getY();
+      facingX[tag.ID] = poses2d[tag.ID].getRotation().getCos();
+      facingY[tag.ID] = poses2d[tag.ID].getRotation().getSin();
+    }
+
+    m_cameraX = Constants.Vision.kRobotToCamera.getX();
+    m_cameraY = Constants.Vision.kRobotToCamera.getY();
+    m_cameraYaw = Constants.Vision.kRobotToCamera.getRotation().getZ();
+
+    // A tag is a candidate for a cell if some point of the cell is in range and in front of it
+    double cellSize = Constants.Vision.kTagIndexCellSize;
+    double reach = Constants.Vision.kMaxTagDistance + Math.hypot(m_cameraX, m_cameraY) + cellSize;
+    int columns = (int) Math.ceil(layout.getFieldLength() / cellSize);
+    int rows = (int) Math.ceil(layout.getFieldWidth() / cellSize);
+    int[] cellTags = new int[columns * rows];
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        double x = (column + 0.5) * cellSize;
+        double y = (row + 0.5) * cellSize;
+        int mask = 0;
+        for (int id = 0; id <= maxId; id++) {
+          if (poses2d[id] == null) {
+            continue;
+          }
+          double dx = x - tagX[id];
+          double dy = y - tagY[id];
+          if (Math.hypot(dx, dy) <= reach && facingX[id] * dx + facingY[id] * dy > -cellSize) {
+            mask |= 1 << id;
+          }
+        }
+        cellTags[row * columns + column] = mask;
+      }
+    }
+
+    m_layout = layout;
+    m_tagPoses = poses;
+    m_tagPoses2d = poses2d;
+    m_tagToField = tagToField;
+    m_tagX = tagX;
+    m_tagY = tagY;
+    m_tagFacingX = facingX;
+    m_tagFacingY = facingY;
+    m_columns = columns;
+    m_rows = rows;
+    m_cellTags = cellTags;
+    m_blueScoring = buildScoringPoses(Constants.Field.kBlueGridTagIds);
+    m_redScoring = buildScoringPoses(Constants.Field.kRedGridTagIds);
+  }
+
+  /** Three scoring positions per grid tag, facing the tag, one node spacing apart. */
+  private static Pose2d[] buildScoringPoses(int[] gridTagIds) {
+    List<Pose2d> poses = new ArrayList<>();
+    for (int id : gridTagIds) {
+      Pose2d tag = getTagPose2d(id);
+      if (tag == null) {
+        continue;
+      }
+      for (int node = -1; node <= 1; node++) {
+        Translation2d offset = new Translation2d(
+            Constants.Field.kScoringDistanceFromTag, node * Constants.Field.kNodeSpacing);
+        poses.add(new Pose2d(
+            tag.getTranslation().plus(offset.rotateBy(tag.getRotation())),
+            tag.getRotation().plus(Rotation2d.fromDegrees(180))));
+      }
+    }
+    return poses.toArray(new Pose2d[0]);
+  }
+
+  /** @return true once a layout has been loaded */
+  public static boolean isLoaded() {
+    return m_layout != null;
+  }
+
+  /** @return the loaded layout, e.g. for a PhotonPoseEstimator, or null if none loaded */
+  public static AprilTagFieldLayout getLayout() {
+    return m_layout;
+  }
+
+  /** @return the tag's field pose, or null if there is no such tag */
+  public static Pose3d getTagPose(int id) {
+    return id >= 0 && id < m_tagPoses.length ? m_tagPoses[id] : null;
+  }
+
+  /** @return the tag's field pose flattened onto the floor, or null if there is no such tag */
+  public static Pose2d getTagPose2d(int id) {
+    return id >= 0 && id < m_tagPoses2d.length ? m_tagPoses2d[id] : null;
+  }
+
+  /**
+   * Returns the transform from the tag to the field origin, so a camera's
+   * camera-to-tag measurement followed by this gives the camera's field pose.
+   *
+   * @return the transform, or null if there is no such tag
+   */
+  public static Transform3d getTagToField(int id) {
+    return id >= 0 && id < m_tagToField.length ? m_tagToField[id] : null;
+  }
+
+  /**
+   * Finds the tags the camera should be able to see: in range, facing the
+   * camera, and inside its field of view.
+   *
+   * @param robotPose the robot's field pose
+   * @return a mask with bit {@code id} set for each visible tag
+   */
+  public static int getVisibleTags(Pose2d robotPose) {
+    double cellSize = Constants.Vision.kTagIndexCellSize;
+    int column = (int) Math.floor(robotPose.getX() / cellSize);
+    int row = (int) Math.floor(robotPose.getY() / cellSize);
+    if (column < 0 || column >= m_columns || row < 0 || row >= m_rows) {
+      return 0;
+    }
+
+    double cos = robotPose.getRotation().getCos();
+    double sin = robotPose.getRotation().getSin();
+    double cameraX = robotPose.getX() + cos * m_cameraX - sin * m_cameraY;
+    double cameraY = robotPose.getY() + sin * m_cameraX + cos * m_cameraY;
+    double cameraYaw = robotPose.getRotation().getRadians() + m_cameraYaw;
+    double maxDistanceSquared = Constants.Vision.kMaxTagDistance * Constants.Vision.kMaxTagDistance;
+
+    int visible = 0;
+    for (int candidates = m_cellTags[row * m_columns + column]; candidates != 0; candidates &= candidates - 1) {
+      int id = Integer.numberOfTrailingZeros(candidates);
+      double dx = m_tagX[id] - cameraX;
+      double dy = m_tagY[id] - cameraY;
+      if (dx * dx + dy * dy <= maxDistanceSquared
+          && m_tagFacingX[id] * dx + m_tagFacingY[id] * dy < 0
+          && Math.abs(MathUtil.angleModulus(Math.atan2(dy, dx) - cameraYaw))
+              <= Constants.Vision.kCameraHorizontalFov / 2) {
+        visible |= 1 << id;
+      }
+    }
+    return visible;
+  }
+
+  /** @return true if the tag should be visible from the pose, e.g. to reject misidentified tags */
+  public static boolean isTagVisible(int id, Pose2d robotPose) {
+    return id >= 0 && id < Integer.SIZE && (getVisibleTags(robotPose) & (1 << id)) != 0;
+  }
+
+  /**
+   * Finds the scoring position on an alliance's grid closest to a point.
+   *
+   * @param position where the robot is
+   * @param alliance whose grid to score on; anything but red means blue
+   * @return the scoring pose, facing the grid, or null if no layout is loaded
+   */
+  public static Pose2d getNearestScoringPose(Translation2d position, Alliance alliance) {
+    Pose2d[] poses = alliance == Alliance.Red ? m_redScoring : m_blueScoring;
+    Pose2d nearest = null;
+    double nearestDistance = Double.POSITIVE_INFINITY;
+    for (Pose2d pose : poses) {
+      double distance = pose.getTranslation().getDistance(position);
+      if (distance < nearestDistance) {
+        nearest = pose;
+        nearestDistance = distance;
+      }
+    }
+    return nearest;
+  }
+}
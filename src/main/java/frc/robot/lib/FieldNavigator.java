@@ -0,0 +1,268 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.wpi.first.math.geometry.Translation2d;
+
+import frc.robot.Constants;
+
+/**
+ * Finds routes around the field obstacles with a visibility graph.
+ *
+ * <p>Each obstacle is a box grown by the robot's radius, so the robot can be
+ * treated as a point. The shortest route between two points in open space bends
+ * only at obstacle corners, so the graph's nodes are the grown boxes' corners
+ * and its edges are the straight lines between corners that no box blocks. The
+ * graph is built once at startup; a query only joins the start and goal to it
+ * and searches, which takes well under a millisecond.
+ *
+ * <p>Routes are scored by driving time rather than length: every corner costs
+ * the time lost slowing down for it, so a slightly longer route with fewer or
+ * gentler turns wins.
+ */
+public class FieldNavigator {
+  // Grown obstacles, {minX, minY, maxX, maxY}, and the same obstacles as they really are
+  private final double[][] m_obstacles;
+  private final double[][] m_physicalObstacles;
+
+  // Corner nodes and which corners see each other
+  private final double[] m_nodeX;
+  private final double[] m_nodeY;
+  private final boolean[][] m_visible;
+
+  private final double m_maxSpeed;
+  private final double m_maxAccel;
+
+  /**
+   * @param maxSpeed the speed routes are driven at, in meters per second
+   * @param maxAccel the acceleration routes are driven with, in meters per second squared
+   */
+  public FieldNavigator(double maxSpeed, double maxAccel) {
+    m_maxSpeed = maxSpeed;
+    m_maxAccel = maxAccel;
+
+    double grow = Constants.Field.kRobotRadius + Constants.Field.kClearance;
+    List<double[]> obstacles = new ArrayList<>();
+    List<double[]> physicalObstacles = new ArrayList<>();
+    for (double[] box : Constants.Field.kBlueObstacles) {
+      obstacles.add(new double[] {box[0] - grow, box[1] - grow, box[2] + grow, box[3] + grow});
+      physicalObstacles.add(box.clone());
+      // Red side, mirrored across the center line
+      obstacles.add(new double[] {
+          Constants.Field.kLength - box[2] - grow, box[1] - grow, Constants.Field.kLength - box[0] + grow, box[3] + grow});
+      physicalObstacles.add(new double[] {Constants.Field.kLength - box[2], box[1], Constants.Field.kLength - box[0], box[3]});
+    }
+    m_obstacles = obstacles.toArray(new double[0][]);
+    m_physicalObstacles = physicalObstacles.toArray(new double[0][]);
+
+    // Corners sit a hair outside their box so routes can run along its edges
+    double epsilon = 1e-3;
+    List<double[]> nodes = new ArrayList<>();
+    for (double[] box : m_obstacles) {
+      for (double[] corner : new double[][] {
+          {box[0] - epsilon, box[1] - epsilon}, {box[2] + epsilon, box[1] - epsilon},
+          {box[2] + epsilon, box[3] + epsilon}, {box[0] - epsilon, box[3] + epsilon}}) {
+        if (isOnField(corner[0], corner[1]) && findObstacles(corner[0], corner[1]) == 0) {
+          nodes.add(corner);
+        }
+      }
+    }
+    int count = nodes.size();
+    m_nodeX = new double[count];
+    m_nodeY = new double[count];
+    for (int i = 0; i < count; i++) {
+      m_nodeX[i] = nodes.get(i)[0];
+      m_nodeY[i] = nodes.get(i)[1];
+    }
+
+    m_visible = new boolean[count][count];
+    for (int i = 0; i < count; i++) {
+      for (int j = i + 1; j < count; j++) {
+        boolean visible = !isBlocked(m_nodeX[i], m_nodeY[i], m_nodeX[j], m_nodeY[j], 0);
+        m_visible[i][j] = visible;
+        m_visible[j][i] = visible;
+      }
+    }
+  }
+
+  /**
+   * Finds the quickest route between two points.
+   *
+   * <p>A start or goal inside grown obstacles (e.g. a scoring position right
+   * against the grid) is allowed. The route may cross those obstacles' growth
+   * margin to leave or reach it, but never the obstacles themselves.
+   *
+   * @param start where the robot is
+   * @param goal where it should go
+   * @return the route's points from start to goal, or an empty list if there is none
+   */
+  public List<Translation2d> findRoute(Translation2d start, Translation2d goal) {
+    int count = m_nodeX.length;
+    int startIndex = count;
+    int goalIndex = count + 1;
+    double[] x = Arrays.copyOf(m_nodeX, count + 2);
+    double[] y = Arrays.copyOf(m_nodeY, count + 2);
+    x[startIndex] = start.getX();
+    y[startIndex] = start.getY();
+    x[goalIndex] = goal.getX();
+    y[goalIndex] = goal.getY();
+    int startObstacles = findObstacles(start.getX(), start.getY());
+    int goalObstacles = findObstacles(goal.getX(), goal.getY());
+
+    boolean[] seesStart = new boolean[count + 2];
+    boolean[] seesGoal = new boolean[count + 2];
+    for (int i = 0; i < count; i++) {
+      seesStart[i] = !isBlocked(x[i], y[i], x[startIndex], y[startIndex], startObstacles);
+      seesGoal[i] = !isBlocked(x[i], y[i], x[goalIndex], y[goalIndex], goalObstacles);
+    }
+    seesGoal[startIndex] = !isBlocked(x[startIndex], y[startIndex], x[goalIndex], y[goalIndex],
+        startObstacles | goalObstacles);
+
+    // Dijkstra over (node, previous node) pairs, since a corner's cost depends on the way in
+    int size = count + 2;
+    double[] cost = new double[size * size];
+    int[] parent = new int[size * size];
+    boolean[] done = new boolean[size * size];
+    Arrays.fill(cost, Double.POSITIVE_INFINITY);
+    Arrays.fill(parent, -1);
+
+    // The start has no way in, so it is stored as its own predecessor
+    int first = startIndex * size + startIndex;
+    cost[first] = 0;
+    int best = -1;
+    while (true) {
+      int state = -1;
+      for (int s = 0; s < cost.length; s++) {
+        if (!done[s] && cost[s] < Double.POSITIVE_INFINITY && (state < 0 || cost[s] < cost[state])) {
+          state = s;
+        }
+      }
+      if (state < 0) {
+        break;
+      }
+      done[state] = true;
+      int node = state / size;
+      int previous = state % size;
+      if (node == goalIndex) {
+        best = state;
+        break;
+      }
+
+      for (int next = 0; next < size; next++) {
+        if (next == node || next == startIndex || !canTravel(node, next, count, seesStart, seesGoal)) {
+          continue;
+        }
+        int nextState = next * size + node;
+        if (done[nextState]) {
+          continue;
+        }
+        double segment = Math.hypot(x[next] - x[node], y[next] - y[node]) / m_maxSpeed;
+        double corner = node == startIndex ? 0 : cornerTime(x, y, previous, node, next);
+        if (cost[state] + segment + corner < cost[nextState]) {
+          cost[nextState] = cost[state] + segment + corner;
+          parent[nextState] = state;
+        }
+      }
+    }
+
+    List<Translation2d> route = new ArrayList<>();
+    for (int state = best; state >= 0; state = parent[state]) {
+      int node = state / size;
+      route.add(0, new Translation2d(x[node], y[node]));
+    }
+    return route;
+  }
+
+  private boolean canTravel(int from, int to, int count, boolean[] seesStart, boolean[] seesGoal) {
+    if (to == count + 1) {
+      return seesGoal[from];
+    }
+    if (from == count) {
+      return seesStart[to];
+    }
+    return from < count && m_visible[from][to];
+  }
+
+  /**
+   * The time lost turning through a corner: slowing to the speed along the new
+   * direction and speeding back up. A full reversal costs the time of a stop and
+   * restart.
+   */
+  private double cornerTime(double[] x, double[] y, int previous, int node, int next) {
+    double inX = x[node] - x[previous];
+    double inY = y[node] - y[previous];
+    double outX = x[next] - x[node];
+    double outY = y[next] - y[node];
+    double lengths = Math.hypot(inX, inY) * Math.hypot(outX, outY);
+    if (lengths < 1e-9) {
+      return 0;
+    }
+    double cos = (inX * outX + inY * outY) / lengths;
+    return m_maxSpeed / m_maxAccel * (1 - cos) / 2;
+  }
+
+  private static boolean isOnField(double x, double y) {
+    double margin = Constants.Field.kRobotRadius;
+    return x >= margin && x <= Constants.Field.kLength - margin
+        && y >= margin && y <= Constants.Field.kWidth - margin;
+  }
+
+  /** @return a mask with bit i set for each grown obstacle i containing the point */
+  private int findObstacles(double x, double y) {
+    int mask = 0;
+    for (int i = 0; i < m_obstacles.length; i++) {
+      double[] box = m_obstacles[i];
+      if (x > box[0] && x < box[2] && y > box[1] && y < box[3]) {
+        mask |= 1 << i;
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * Checks whether the segment passes through the inside of any obstacle. The
+   * obstacles in the margin mask contain one of the ends, so for those only the
+   * obstacle itself blocks, not its growth margin.
+   */
+  private boolean isBlocked(double x0, double y0, double x1, double y1, int marginMask) {
+    for (int i = 0; i < m_obstacles.length; i++) {
+      double[] box = (marginMask & (1 << i)) == 0 ? m_obstacles[i] : m_physicalObstacles[i];
+      if (crossesBox(x0, y0, x1, y1, box)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Liang-Barsky clipping against the open box: true if any stretch of the segment lies inside it. */
+  private static boolean crossesBox(double x0, double y0, double x1, double y1, double[] box) {
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+    double[] p = {-dx, dx, -dy, dy};
+    double[] q = {x0 - box[0], box[2] - x0, y0 - box[1], box[3] - y0};
+    double enter = 0;
+    double exit = 1;
+    for (int i = 0; i < 4; i++) {
+      if (Math.abs(p[i]) < 1e-12) {
+        if (q[i] <= 0) {
+          return false;
+        }
+      } else {
+        double t = q[i] / p[i];
+        if (p[i] < 0) {
+          enter = Math.max(enter, t);
+        } else {
+          exit = Math.min(exit, t);
+        }
+      }
+    }
+    return exit - enter > 1e-9;
+  }
+}
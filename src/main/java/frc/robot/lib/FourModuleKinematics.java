@@ -0,0 +1,183 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Swerve kinematics for exactly four modules, worked out in closed form.
+ *
+ * <p>{@link SwerveDriveKinematics} goes through 8x3 matrices for both
+ * directions, allocating the matrices on every call. With four modules the
+ * inverse kinematics are just each module's velocity, {@code (vx - w*y, vy +
+ * w*x)}. The forward kinematics are the least-squares fit of the chassis
+ * speeds to the four module velocities. Its normal equations depend only on the
+ * module locations, so their inverse is worked out once here and each call is
+ * a handful of multiply-adds. The answers are the same as the generic solver's,
+ * and so is the behaviour of keeping the last module angles when the chassis
+ * is commanded to stop.
+ *
+ * <p>This is a {@link SwerveDriveKinematics}, so the pose estimator and the
+ * path followers use it too. A center of rotation other than the robot's
+ * center goes to the generic solver.
+ *
+ * <p>The last module angles make {@link #toSwerveModuleStates} stateful, so
+ * each user builds its own instance and calls it from one thread at a time.
+ * The forward kinematics keep no state.
+ */
+public class FourModuleKinematics extends SwerveDriveKinematics {
+  private final double[] m_x = new double[4];
+  private final double[] m_y = new double[4];
+
+  // Inverse of the forward kinematics' normal equations, row-major 3x3
+  private final double[] m_normalInverse = new double[9];
+
+  // The angles the modules were last sent, kept when the chassis stops
+  private final Rotation2d[] m_lastAngles = {new Rotation2d(), new Rotation2d(), new Rotation2d(), new Rotation2d()};
+
+  /**
+   * @param moduleTranslations the four module locations relative to the robot's center
+   */
+  public FourModuleKinematics(Translation2d... moduleTranslations) {
+    super(moduleTranslations);
+    if (moduleTranslations.length != 4) {
+      throw new IllegalArgumentException("FourModuleKinematics needs exactly four modules");
+    }
+
+    double sumX = 0;
+    double sumY = 0;
+    double sumSquares = 0;
+    for (int i = 0; i < 4; i++) {
+      m_x[i] = moduleTranslations[i].getX();
+      m_y[i] = moduleTranslations[i].getY();
+      sumX += m_x[i];
+      sumY += m_y[i];
+      sumSquares += m_x[i] * m_x[i] + m_y[i] * m_y[i];
+    }
+
+    // Normal equations for (vx, vy, w): [4 0 -sumY; 0 4 sumX; -sumY sumX sumSquares]
+    double a = 4;
+    double c = -sumY;
+    double f = sumX;
+    double i = sumSquares;
+    double determinant = a * (a * i - f * f) - c * c * a;
+    if (Math.abs(determinant) < 1e-12) {
+      throw new IllegalArgumentException("The module locations do not determine the chassis rotation");
+    }
+    m_normalInverse[0] = (a * i - f * f) / determinant;
+    m_normalInverse[1] = c * f / determinant;
+    m_normalInverse[2] = -c * a / determinant;
+    m_normalInverse[3] = m_normalInverse[1];
+    m_normalInverse[4] = (a * i - c * c) / determinant;
+    m_normalInverse[5] = -a * f / determinant;
+    m_normalInverse[6] = m_normalInverse[2];
+    m_normalInverse[7] = m_normalInverse[5];
+    m_normalInverse[8] = a * a / determinant;
+  }
+
+  @Override
+  public SwerveModuleState[] toSwerveModuleStates(ChassisSpeeds chassisSpeeds, Translation2d centerOfRotationMeters) {
+    if (centerOfRotationMeters.getX() != 0 || centerOfRotationMeters.getY() != 0) {
+      SwerveModuleState[] states = super.toSwerveModuleStates(chassisSpeeds, centerOfRotationMeters);
+      for (int i = 0; i < 4; i++) {
+        m_lastAngles[i] = states[i].angle;
+      }
+      return states;
+    }
+
+    double vx = chassisSpeeds.vxMetersPerSecond;
+    double vy = chassisSpeeds.vyMetersPerSecond;
+    double omega = chassisSpeeds.omegaRadiansPerSecond;
+    SwerveModuleState[] states = new SwerveModuleState[4];
+    if (vx == 0 && vy == 0 && omega == 0) {
+      for (int i = 0; i < 4; i++) {
+        states[i] = new SwerveModuleState(0, m_lastAngles[i]);
+      }
+      return states;
+    }
+
+    for (int i = 0; i < 4; i++) {
+      double x = vx - omega * m_y[i];
+      double y = vy + omega * m_x[i];
+      m_lastAngles[i] = new Rotation2d(x, y);
+      states[i] = new SwerveModuleState(Math.hypot(x, y), m_lastAngles[i]);
+    }
+    return states;
+  }
+
+  @Override
+  public ChassisSpeeds toChassisSpeeds(SwerveModuleState... wheelStates) {
+    if (wheelStates.length != 4) {
+      throw new IllegalArgumentException("Expected 4 module states, got " + wheelStates.length);
+    }
+    double sumX = 0;
+    double sumY = 0;
+    double sumMoment = 0;
+    for (int i = 0; i < 4; i++) {
+      double speed = wheelStates[i].speedMetersPerSecond;
+      double x = speed * wheelStates[i].angle.getCos();
+      double y = speed * wheelStates[i].angle.getSin();
+      sumX += x;
+      sumY += y;
+      sumMoment += m_x[i] * y - m_y[i] * x;
+    }
+    return new ChassisSpeeds(
+        m_normalInverse[0] * sumX + m_normalInverse[1] * sumY + m_normalInverse[2] * sumMoment,
+        m_normalInverse[3] * sumX + m_normalInverse[4] * sumY + m_normalInverse[5] * sumMoment,
+        m_normalInverse[6] * sumX + m_normalInverse[7] * sumY + m_normalInverse[8] * sumMoment);
+  }
+
+  @Override
+  public Twist2d toTwist2d(SwerveModulePosition... wheelDeltas) {
+    if (wheelDeltas.length != 4) {
+      throw new IllegalArgumentException("Expected 4 module deltas, got " + wheelDeltas.length);
+    }
+    double sumX = 0;
+    double sumY = 0;
+    double sumMoment = 0;
+    for (int i = 0; i < 4; i++) {
+      double distance = wheelDeltas[i].distanceMeters;
+      double x = distance * wheelDeltas[i].angle.getCos();
+      double y = distance * wheelDeltas[i].angle.getSin();
+      sumX += x;
+      sumY += y;
+      sumMoment += m_x[i] * y - m_y[i] * x;
+    }
+    return new Twist2d(
+        m_normalInverse[0] * sumX + m_normalInverse[1] * sumY + m_normalInverse[2] * sumMoment,
+        m_normalInverse[3] * sumX + m_normalInverse[4] * sumY + m_normalInverse[5] * sumMoment,
+        m_normalInverse[6] * sumX + m_normalInverse[7] * sumY + m_normalInverse[8] * sumMoment);
+  }
+
+  /**
+   * Scales the module speeds down together so none of the modules in the mask
+   * is over the limit, keeping the direction the chassis moves in.
+   *
+   * @param states the module states, changed in place
+   * @param mask bit i set for each state i that counts toward the limit
+   * @param maxSpeed the fastest a module can drive, in meters per second
+   */
+  public static void desaturateWheelSpeeds(SwerveModuleState[] states, int mask, double maxSpeed) {
+    double fastest = 0;
+    for (int i = 0; i < states.length; i++) {
+      if ((mask & (1 << i)) != 0) {
+        fastest = Math.max(fastest, Math.abs(states[i].speedMetersPerSecond));
+      }
+    }
+    if (fastest > maxSpeed) {
+      double scale = maxSpeed / fastest;
+      for (SwerveModuleState state : states) {
+        state.speedMetersPerSecond *= scale;
+      }
+    }
+  }
+}
@@ -0,0 +1,218 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.util.datalog.StringLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.Timer;
+
+import frc.robot.Constants;
+import frc.robot.Robot;
+import frc.robot.lib.TaskScheduler.Priority;
+
+/**
+ * Records the JVM's garbage collections and matches them against main loop
+ * overruns.
+ *
+ * <p>The collectors' notifications arrive on a JMX thread, which only works
+ * out each collection's pause, heap use and allocation rate and queues them.
+ * A background task drains the queue on the main thread. It writes each
+ * collection to the data log under "/jvm/", and checks it against the
+ * overruns {@link LoopGovernor} reported, so a loop spike can be put down to
+ * a collection or ruled out. Totals are published under "JVM/".
+ */
+public final class GcMonitor {
+  /** One collection, in FPGA time. */
+  private static final class Collection {
+    final String collector;
+    final String cause;
+    final double start;
+    final double end;
+    final long heapBefore;
+    final long heapAfter;
+    final double allocationRate;
+
+    Collection(String collector, String cause, double start, double end, long heapBefore, long heapAfter,
+        double allocationRate) {
+      this.collector = collector;
+      this.cause = cause;
+      this.start = start;
+      this.end = end;
+      this.heapBefore = heapBefore;
+      this.heapAfter = heapAfter;
+      this.allocationRate = allocationRate;
+    }
+  }
+
+  private static final double kBytesPerMB = 1024.0 * 1024.0;
+
+  private static final ConcurrentLinkedQueue<Collection> m_pending = new ConcurrentLinkedQueue<>();
+  private static final Set<String> m_heapPools = new HashSet<>();
+  // FPGA time of the JVM's start, for converting collection times
+  private static double m_jvmStartTime;
+
+  // Only touched by the notification thread
+  private static long m_lastHeapAfter = -1;
+  private static double m_lastEnd = Double.NaN;
+
+  // Recent overrun cycles, as a ring of {start, end}
+  private static final double[][] m_overruns = new double[Constants.Gc.kOverrunHistory][2];
+  private static int m_overrunIndex = 0;
+
+  private static DoubleLogEntry m_pauseLog;
+  private static DoubleLogEntry m_heapLog;
+  private static DoubleLogEntry m_allocationLog;
+  private static StringLogEntry m_events;
+
+  private static long m_collections = 0;
+  private static double m_totalPause = 0;
+  private static double m_maxPause = 0;
+  private static double m_lastPause = 0;
+  private static long m_lastHeap = 0;
+  private static double m_allocationRate = 0;
+  private static long m_overrunsDuringGc = 0;
+
+  private GcMonitor() {}
+
+  /** Subscribes to the collectors and starts publishing. Call once in robotInit. */
+  public static void start() {
+    m_jvmStartTime = Timer.getFPGATimestamp() - ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0;
+    m_pauseLog = new DoubleLogEntry(DataLogManager.getLog(), "/jvm/gcPauseMs");
+    m_heapLog = new DoubleLogEntry(DataLogManager.getLog(), "/jvm/heapUsedMB");
+    m_allocationLog = new DoubleLogEntry(DataLogManager.getLog(), "/jvm/allocationRateMBps");
+    m_events = new StringLogEntry(DataLogManager.getLog(), "/jvm/gcEvents");
+
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        m_heapPools.add(pool.getName());
+      }
+    }
+    long maxHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+
+    StringBuilder collectors = new StringBuilder();
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (collector instanceof NotificationEmitter) {
+        ((NotificationEmitter) collector).addNotificationListener(GcMonitor::handleNotification, null, null);
+      }
+      collectors.append(collectors.length() > 0 ? ", " : "").append(collector.getName());
+    }
+    DataLog.log(String.format("JVM: collectors %s, max heap %.0f MB", collectors, maxHeap / kBytesPerMB));
+
+    Robot.addCustomPeriodic("GcMonitor", GcMonitor::update, Constants.Gc.kUpdatePeriodSeconds, Priority.LOW);
+  }
+
+  /** Runs on the JMX notification thread, so it only measures the collection and queues it. */
+  private static void handleNotification(Notification notification, Object handback) {
+    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+      return;
+    }
+    GarbageCollectionNotificationInfo info =
+        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+    GcInfo gc = info.getGcInfo();
+    long before = heapUsed(gc.getMemoryUsageBeforeGc());
+    long after = heapUsed(gc.getMemoryUsageAfterGc());
+    double start = m_jvmStartTime + gc.getStartTime() / 1000.0;
+    double end = m_jvmStartTime + gc.getEndTime() / 1000.0;
+
+    // Everything the heap gained since the last collection finished was allocated in between
+    double allocationRate = Double.NaN;
+    if (m_lastHeapAfter >= 0 && start > m_lastEnd) {
+      allocationRate = Math.max(0, before - m_lastHeapAfter) / (start - m_lastEnd);
+    }
+    m_lastHeapAfter = after;
+    m_lastEnd = end;
+
+    m_pending.add(new Collection(info.getGcName(), info.getGcCause(), start, end, before, after, allocationRate));
+  }
+
+  private static long heapUsed(Map<String, MemoryUsage> usage) {
+    long used = 0;
+    for (Map.Entry<String, MemoryUsage> pool : usage.entrySet()) {
+      if (m_heapPools.contains(pool.getKey())) {
+        used += pool.getValue().getUsed();
+      }
+    }
+    return used;
+  }
+
+  /**
+   * Notes a main loop cycle that overran, to be matched against collections.
+   * Called by {@link LoopGovernor} on the main thread.
+   *
+   * @param start when the cycle should have started, in FPGA seconds
+   * @param end when it ended
+   */
+  static void recordOverrun(double start, double end) {
+    m_overruns[m_overrunIndex][0] = start;
+    m_overruns[m_overrunIndex][1] = end;
+    m_overrunIndex = (m_overrunIndex + 1) % m_overruns.length;
+  }
+
+  /** Logs the queued collections and publishes the totals. */
+  private static void update() {
+    Collection collection;
+    while ((collection = m_pending.poll()) != null) {
+      double pause = collection.end - collection.start;
+      m_collections++;
+      m_totalPause += pause;
+      m_maxPause = Math.max(m_maxPause, pause);
+      m_lastPause = pause;
+      m_lastHeap = collection.heapAfter;
+
+      m_pauseLog.append(pause * 1000);
+      m_heapLog.append(collection.heapAfter / kBytesPerMB);
+      if (!Double.isNaN(collection.allocationRate)) {
+        m_allocationRate = collection.allocationRate;
+        m_allocationLog.append(collection.allocationRate / kBytesPerMB);
+      }
+
+      boolean causedOverrun = overlapsOverrun(collection);
+      if (causedOverrun) {
+        m_overrunsDuringGc++;
+      }
+      m_events.append(String.format("%s (%s) %.1f ms, heap %.1f -> %.1f MB%s",
+          collection.collector, collection.cause, pause * 1000, collection.heapBefore / kBytesPerMB,
+          collection.heapAfter / kBytesPerMB, causedOverrun ? ", loop overran" : ""));
+      if (causedOverrun && pause > Constants.Gc.kLogPauseSeconds) {
+        DataLog.log(String.format("--> GC pause of %.1f ms during a loop overrun (%s)", pause * 1000,
+            collection.collector));
+      }
+    }
+
+    if (LoopGovernor.isEnabled(LoopGovernor.Work.DIAGNOSTICS)) {
+      Telemetry.putGc(m_collections, m_lastPause * 1000, m_maxPause * 1000, m_totalPause * 1000,
+          m_lastHeap / kBytesPerMB, m_allocationRate / kBytesPerMB, m_overrunsDuringGc);
+    }
+  }
+
+  /** @return true if a recent overrun cycle overlaps the collection's pause */
+  private static boolean overlapsOverrun(Collection collection) {
+    for (double[] overrun : m_overruns) {
+      if (overrun[1] > 0 && overrun[0] <= collection.end && collection.start <= overrun[1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
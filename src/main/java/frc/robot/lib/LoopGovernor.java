@@ -0,0 +1,139 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.livewindow.LiveWindow;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import frc.robot.Constants;
+import frc.robot.Robot;
+import frc.robot.lib.TaskScheduler.Priority;
+
+/**
+ * Watches the main loop and sheds optional work when it keeps running long.
+ *
+ * <p>Robot calls {@link #startCycle()} and {@link #endCycle()} around
+ * robotPeriodic(). A cycle overruns when it starts more than
+ * {@link Constants.Loop#kOverrunToleranceSeconds} after it should have, which
+ * catches everything the last loop did, or when robotPeriodic() itself uses
+ * more than {@link Constants.Loop#kWorkBudgetSeconds}. Once
+ * {@link Constants.Loop#kShedOverruns} of the last
+ * {@link Constants.Loop#kWindowCycles} cycles have overrun, the next kind of
+ * {@link Work} is shed, in declaration order. Work comes back one kind at a
+ * time, after a whole window with no overruns and robotPeriodic() under
+ * {@link Constants.Loop#kRestoreWorkFraction} of its budget. Anything that
+ * keeps the robot under control is never shed; the code doing optional work
+ * asks {@link #isEnabled(Work)} first.
+ */
+public final class LoopGovernor {
+  /** Optional work, in the order it is shed. */
+  public enum Work {
+    /** Per-module and gyro dashboard values, and LiveWindow's full telemetry. */
+    VERBOSE_TELEMETRY,
+    /** The robot pose on the dashboard field. */
+    FIELD,
+    /** Module health, command and task statistics on the dashboard. */
+    DIAGNOSTICS
+  }
+
+  private static final Work[] kWork = Work.values();
+
+  // How many kinds of work are shed, from the front of kWork
+  private static int m_shedCount = 0;
+
+  // Overrun flags for the last window of cycles, as a ring
+  private static final boolean[] m_overruns = new boolean[Constants.Loop.kWindowCycles];
+  private static int m_overrunCount = 0;
+  private static int m_index = 0;
+  // Cycles since the shed level last changed
+  private static int m_cyclesSinceChange = 0;
+  private static double m_maxWorkInWindow = 0;
+
+  private static double m_cycleStart = Double.NaN;
+  private static double m_lastCycleTime = 0;
+  private static double m_lastWorkTime = 0;
+  private static long m_totalOverruns = 0;
+
+  private LoopGovernor() {}
+
+  /** Starts publishing the loop's health. Call once in robotInit. */
+  public static void start() {
+    Robot.addCustomPeriodic("LoopGovernor", LoopGovernor::publish, Constants.Loop.kPublishPeriodSeconds,
+        Priority.LOW);
+  }
+
+  /** @return true if the work should be done this cycle */
+  public static boolean isEnabled(Work work) {
+    return work.ordinal() >= m_shedCount;
+  }
+
+  /** Marks the start of robotPeriodic(). */
+  public static void startCycle() {
+    double now = Timer.getFPGATimestamp();
+    m_lastCycleTime = Double.isNaN(m_cycleStart) ? Constants.Loop.kPeriodSeconds : now - m_cycleStart;
+    m_cycleStart = now;
+  }
+
+  /** Marks the end of robotPeriodic(), and sheds or restores work. */
+  public static void endCycle() {
+    if (Double.isNaN(m_cycleStart)) {
+      return;
+    }
+    m_lastWorkTime = Timer.getFPGATimestamp() - m_cycleStart;
+    boolean overrun = m_lastCycleTime > Constants.Loop.kPeriodSeconds + Constants.Loop.kOverrunToleranceSeconds
+        || m_lastWorkTime > Constants.Loop.kWorkBudgetSeconds;
+
+    if (m_overruns[m_index]) {
+      m_overrunCount--;
+    }
+    m_overruns[m_index] = overrun;
+    if (overrun) {
+      m_overrunCount++;
+      m_totalOverruns++;
+      GcMonitor.recordOverrun(m_cycleStart - m_lastCycleTime, m_cycleStart + m_lastWorkTime);
+    }
+    m_index = (m_index + 1) % m_overruns.length;
+    m_cyclesSinceChange++;
+    m_maxWorkInWindow = Math.max(m_maxWorkInWindow, m_lastWorkTime);
+
+    // Shedding takes effect over the next few cycles, so wait for them before shedding more
+    if (m_overrunCount >= Constants.Loop.kShedOverruns && m_cyclesSinceChange >= Constants.Loop.kShedHoldCycles
+        && m_shedCount < kWork.length) {
+      setShedCount(m_shedCount + 1);
+    } else if (m_overrunCount == 0 && m_cyclesSinceChange >= m_overruns.length && m_shedCount > 0
+        && m_maxWorkInWindow < Constants.Loop.kWorkBudgetSeconds * Constants.Loop.kRestoreWorkFraction) {
+      setShedCount(m_shedCount - 1);
+    }
+    if (m_cyclesSinceChange % m_overruns.length == 0) {
+      m_maxWorkInWindow = 0;
+    }
+  }
+
+  private static void setShedCount(int count) {
+    boolean shedding = count > m_shedCount;
+    Work changed = kWork[shedding ? count - 1 : count];
+    m_shedCount = count;
+    m_cyclesSinceChange = 0;
+    m_maxWorkInWindow = 0;
+    DataLog.log(String.format("Loop governor: %s %s, %d of the last %d cycles overran",
+        shedding ? "shedding" : "restoring", changed, m_overrunCount, m_overruns.length));
+
+    if (changed == Work.VERBOSE_TELEMETRY && shedding) {
+      LiveWindow.disableAllTelemetry();
+    } else if (changed == Work.VERBOSE_TELEMETRY) {
+      Telemetry.restoreTelemetrySetting();
+    }
+  }
+
+  /** Publishes the loop's health under "Loop/". */
+  private static void publish() {
+    SmartDashboard.putNumber("Loop/CycleMs", m_lastCycleTime * 1000);
+    SmartDashboard.putNumber("Loop/WorkMs", m_lastWorkTime * 1000);
+    SmartDashboard.putNumber("Loop/Overruns", m_totalOverruns);
+    SmartDashboard.putString("Loop/Shed", m_shedCount == 0 ? "NONE" : kWork[m_shedCount - 1].name());
+  }
+}
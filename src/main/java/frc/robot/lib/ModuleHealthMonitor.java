@@ -0,0 +1,188 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import edu.wpi.first.math.filter.Debouncer;
+
+import frc.robot.Constants;
+
+/**
+ * Watches each swerve module for CAN errors, stale readings, overheating,
+ * stalls, controller resets and steering encoder disagreement. A module whose
+ * faults persist is marked failed so the drivetrain can drive without it.
+ * A failed module stays failed until {@link #resetFailures()}: once it is
+ * stopped, most of its faults (stale readings, a stall) can no longer show,
+ * so looking healthy says nothing about whether it would fail again.
+ * Stationary modules whose steering encoder has drifted are re-seeded from
+ * their CANcoder along the way.
+ */
+public class ModuleHealthMonitor {
+  public enum State { OK, WARNING, FAILED }
+
+  private static final class ModuleStatus {
+    final String name;
+    final SwerveModule module;
+    final Debouncer faultDebouncer = new Debouncer(Constants.Health.kFaultDebounceSeconds);
+
+    State state = State.OK;
+    String reason = "";
+    int canErrors = 0;
+    int resets = 0;
+    int resyncs = 0;
+    int staleSamples = 0;
+    double lastDrivingPosition = Double.NaN;
+    double lastDrivingVelocity = Double.NaN;
+    double current = 0;
+    double temperature = 0;
+    double divergence = 0;
+
+    ModuleStatus(String name, SwerveModule module) {
+      this.name = name;
+      this.module = module;
+    }
+  }
+
+  private final ModuleStatus[] m_status;
+
+  /**
+   * @param names the telemetry names of the modules, in the same order as the modules
+   * @param modules the modules to watch
+   */
+  public ModuleHealthMonitor(String[] names, SwerveModule... modules) {
+    m_status = new ModuleStatus[modules.length];
+    for (int i = 0; i < modules.length; i++) {
+      m_status[i] = new ModuleStatus(names[i], modules[i]);
+    }
+  }
+
+  /** Checks every module once and publishes the results. */
+  public void update() {
+    boolean publish = LoopGovernor.isEnabled(LoopGovernor.Work.DIAGNOSTICS);
+    for (ModuleStatus status : m_status) {
+      check(status);
+      if (!publish) {
+        continue;
+      }
+      Telemetry.putModuleHealth(status.name, status.state.name(), status.reason, status.canErrors,
+          status.resets, status.resyncs, status.current, status.temperature, Math.toDegrees(status.divergence));
+    }
+  }
+
+  private void check(ModuleStatus status) {
+    SwerveModule module = status.module;
+
+    double position = module.getDrivingRelativePosition();
+    double velocity = module.getDrivingVelocity();
+    double steeringVelocity = module.getSteeringVelocity();
+    status.current = module.getDrivingCurrent();
+    status.temperature = module.getMotorTemperature();
+    status.divergence = module.getSteeringDivergence();
+    boolean canError = module.hasCANError();
+
+    String reason = "";
+    if (canError) {
+      status.canErrors++;
+      reason = "CAN error";
+    }
+
+    // A SPARK MAX that stops sending frames keeps handing back its last values
+    boolean moving = Math.abs(module.getDesiredSpeed()) > Constants.Health.kMinMovingSpeedMetersPerSecond;
+    if (moving && position == status.lastDrivingPosition && velocity == status.lastDrivingVelocity) {
+      status.staleSamples++;
+    } else {
+      status.staleSamples = 0;
+    }
+    status.lastDrivingPosition = position;
+    status.lastDrivingVelocity = velocity;
+    if (status.staleSamples >= Constants.Health.kMaxStaleSamples) {
+      reason = "stale sensor data";
+    }
+
+    if (status.temperature > Constants.Health.kMaxMotorTemperatureCelsius) {
+      reason = "over temperature";
+    }
+
+    if (moving && status.current > Constants.Health.kStallCurrentAmps
+        && Math.abs(velocity) < Constants.Health.kStallVelocityMetersPerSecond) {
+      reason = "drive stalled";
+    }
+
+    // Keep the NEO steering encoder in step with the CANcoder while the module sits still
+    if (module.resyncSteeringIfDrifted(status.divergence)) {
+      status.resyncs++;
+      DataLog.log(String.format("Swerve module %s steering re-seeded, corrected %.2f degrees",
+          status.name, Math.toDegrees(status.divergence)));
+      status.divergence = 0;
+    }
+
+    // The two steering encoders only agree while the module is not turning,
+    // since their CAN frames arrive at different times
+    if (Math.abs(steeringVelocity) < Constants.Health.kMaxSteeringCompareVelocity
+        && Math.abs(status.divergence) > Constants.Health.kMaxSteeringDivergenceRadians) {
+      reason = "steering encoders disagree";
+    }
+
+    // A controller that rebooted has lost its steering position, so re-seed it right away
+    if (module.checkForReset()) {
+      status.resets++;
+      module.syncSteeringEncoder();
+      DataLog.log("Swerve module " + status.name + " controller reset, steering re-seeded");
+      reason = "controller reset";
+    }
+
+    boolean faulted = !reason.isEmpty();
+    boolean failed = status.faultDebouncer.calculate(faulted);
+
+    State state = status.state;
+    if (failed) {
+      state = State.FAILED;
+    } else if (state != State.FAILED) {
+      state = faulted ? State.WARNING : State.OK;
+    }
+
+    if (state != status.state) {
+      DataLog.log("Swerve module " + status.name + " health: " + status.state + " -> " + state
+          + (faulted ? " (" + reason + ")" : ""));
+      status.state = state;
+    }
+    status.reason = reason;
+  }
+
+  /**
+   * Puts every failed module back in service, for when the operator has checked
+   * the robot. A module whose fault is still there fails again after the debounce.
+   */
+  public void resetFailures() {
+    for (ModuleStatus status : m_status) {
+      if (status.state == State.FAILED) {
+        DataLog.log("Swerve module " + status.name + " health: FAILED -> OK (reset)");
+        status.state = State.OK;
+        status.reason = "";
+        status.staleSamples = 0;
+        status.faultDebouncer.calculate(false);
+      }
+    }
+  }
+
+  /**
+   * Returns the modules that are fit to drive.
+   *
+   * @return a bit mask with bit i set when module i has not failed
+   */
+  public int getHealthyMask() {
+    int mask = 0;
+    for (int i = 0; i < m_status.length; i++) {
+      if (m_status[i].state != State.FAILED) {
+        mask |= 1 << i;
+      }
+    }
+    return mask;
+  }
+
+  public State getState(int module) {
+    return m_status[module].state;
+  }
+}
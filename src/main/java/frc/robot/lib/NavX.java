@@ -11,7 +11,7 @@ import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.util.sendable.SendableBuilder;
 import edu.wpi.first.wpilibj.SPI;
 
-public class NavX extends AHRS {
+public class NavX extends AHRS implements DriveGyro {
   public NavX() {
     super(SPI.Port.kMXP);
   }
@@ -59,6 +59,15 @@ public class NavX extends AHRS {
     return new Rotation2d(Math.toRadians(getYaw()));
   }
 
+  /**
+   * Gets the yaw rate using WPILib's convention, counter-clockwise positive.
+   *
+   * @return the yaw rate, in radians per second
+   */
+  public double getYawRateRadians() {
+    return -Math.toRadians(getRate());
+  }
+
   @Override
   public void initSendable(SendableBuilder builder) {
     super.initSendable(builder);
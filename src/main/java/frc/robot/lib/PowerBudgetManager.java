@@ -0,0 +1,103 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.wpilibj.PowerDistribution;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import frc.robot.Constants;
+
+/**
+ * Hands out current limits to the swerve motors from what the battery can
+ * supply. The battery is modelled as an open-circuit voltage behind a fixed
+ * resistance; the open-circuit voltage is estimated from the measured voltage
+ * and total current, and the drivetrain gets whatever current keeps the
+ * battery above the configured floor once the rest of the robot is served.
+ * Limits are only written to the controllers when they move past a
+ * hysteresis band, since every write is a blocking CAN configuration call.
+ *
+ * <p>Two kinds of current are involved. The PDH measures battery (supply)
+ * current, while a SPARK MAX smart current limit caps motor (phase) current.
+ * A motor draws its phase current times its duty cycle from the battery, so
+ * each motor's share of the battery current is worked out that way, and a
+ * phase limit of L amps can never draw more than L amps from the battery.
+ * Handing the driving motors their battery share as a phase limit is
+ * therefore safe, and only tight at full speed; pushing off the line they draw
+ * well under their limit from the battery.
+ *
+ * <p>The steering motors keep their normal limit. They draw little from the
+ * battery, so their measured draw is set aside and the driving motors share
+ * the rest. Only when that is not enough for the driving motors' floor are
+ * the steering limits cut, by the shortfall.
+ */
+public class PowerBudgetManager {
+  private final SwerveModule[] m_modules;
+  private final PowerDistribution m_powerDistribution = new PowerDistribution();
+  private double m_openCircuitVoltage = Double.NaN;
+
+  private int m_drivingLimit = Constants.SwerveModule.kDrivingMotorCurrentLimit;
+  private int m_turningLimit = Constants.SwerveModule.kTurningMotorCurrentLimit;
+
+  public PowerBudgetManager(SwerveModule... modules) {
+    m_modules = modules;
+  }
+
+  /** Recomputes the budget and pushes new limits when they have moved far enough. */
+  public void update() {
+    double voltage = RobotController.getBatteryVoltage();
+    double totalCurrent = m_powerDistribution.getTotalCurrent();
+    double openCircuitVoltage = voltage + totalCurrent * Constants.Power.kBatteryResistanceOhms;
+
+    // Smooth the estimate, starting from the first reading rather than from zero
+    if (Double.isNaN(m_openCircuitVoltage)) {
+      m_openCircuitVoltage = openCircuitVoltage;
+    }
+    m_openCircuitVoltage += (openCircuitVoltage - m_openCircuitVoltage) * Constants.Power.kUpdatePeriodSeconds
+        / (Constants.Power.kOpenCircuitFilterTimeConstant + Constants.Power.kUpdatePeriodSeconds);
+    openCircuitVoltage = m_openCircuitVoltage;
+
+    // Current the battery can deliver before it sags to the floor
+    double available = (openCircuitVoltage - Constants.Power.kMinBatteryVoltage)
+        / Constants.Power.kBatteryResistanceOhms;
+
+    // Battery current, not motor current, so it can be taken out of the PDH total
+    double drivingCurrent = 0;
+    double turningCurrent = 0;
+    for (SwerveModule module : m_modules) {
+      drivingCurrent += module.getDrivingSupplyCurrent();
+      turningCurrent += module.getTurningSupplyCurrent();
+    }
+    double budget = available - Math.max(0, totalCurrent - drivingCurrent - turningCurrent);
+
+    double drivingBudget = budget - turningCurrent;
+    int drivingLimit = (int) MathUtil.clamp(drivingBudget / m_modules.length,
+        Constants.Power.kMinDrivingCurrentLimit, Constants.Power.kMaxDrivingCurrentLimit);
+    double shortfall = Math.max(0, Constants.Power.kMinDrivingCurrentLimit * m_modules.length - drivingBudget);
+    int turningLimit = (int) MathUtil.clamp(
+        Constants.SwerveModule.kTurningMotorCurrentLimit - shortfall / m_modules.length,
+        Constants.Power.kMinTurningCurrentLimit, Constants.Power.kMaxTurningCurrentLimit);
+
+    if (Math.abs(drivingLimit - m_drivingLimit) >= Constants.Power.kCurrentLimitHysteresisAmps
+        || Math.abs(turningLimit - m_turningLimit) >= Constants.Power.kCurrentLimitHysteresisAmps) {
+      DataLog.log(String.format("Power: drive limit %d -> %d A, steer limit %d -> %d A (budget %.0f A)",
+          m_drivingLimit, drivingLimit, m_turningLimit, turningLimit, budget));
+      m_drivingLimit = drivingLimit;
+      m_turningLimit = turningLimit;
+      for (SwerveModule module : m_modules) {
+        module.setCurrentLimits(m_drivingLimit, m_turningLimit);
+      }
+    }
+
+    SmartDashboard.putNumber("Power/BatteryVoltage", voltage);
+    SmartDashboard.putNumber("Power/TotalCurrent", totalCurrent);
+    SmartDashboard.putNumber("Power/OpenCircuitVoltage", openCircuitVoltage);
+    SmartDashboard.putNumber("Power/DrivetrainBudget", budget);
+    SmartDashboard.putNumber("Power/DrivingLimit", m_drivingLimit);
+    SmartDashboard.putNumber("Power/TurningLimit", m_turningLimit);
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.util.Arrays;
+
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+import frc.robot.Constants;
+
+/**
+ * Spots drive wheels that are slipping on the carpet and backs off the
+ * drivetrain's commanded speed until they grip again.
+ *
+ * <p>Each module's measured velocity, with the gyro's rotation taken out, is an
+ * estimate of the chassis velocity. The median of those estimates is what the
+ * chassis is really doing, since a single spinning wheel cannot drag it far.
+ * A module whose wheel speed is well off what that chassis velocity predicts
+ * at its location is slipping.
+ *
+ * <p>Each module keeps its own traction factor, but the drivetrain is slowed
+ * as a whole by the lowest one. Slowing only the slipping wheel would no
+ * longer match the other wheels' rigid-body motion, so they would scrub
+ * against it and the chassis would yaw.
+ */
+public class SlipDetector {
+  private final Translation2d[] m_locations;
+  private final double[] m_chassisX;
+  private final double[] m_chassisY;
+  private final double[] m_sorted;
+  private final double[] m_tractionScale;
+  private int m_slipMask = 0;
+
+  /**
+   * @param locations the module locations relative to the robot center, in the same
+   *     order the states will be passed to {@link #update}
+   */
+  public SlipDetector(Translation2d... locations) {
+    m_locations = locations;
+    m_chassisX = new double[locations.length];
+    m_chassisY = new double[locations.length];
+    m_sorted = new double[locations.length];
+    m_tractionScale = new double[locations.length];
+    Arrays.fill(m_tractionScale, 1.0);
+  }
+
+  /**
+   * Checks each module for slip and updates its traction scale.
+   *
+   * @param states the measured module states
+   * @param yawRate the gyro rate, in radians per second counter-clockwise
+   */
+  public void update(SwerveModuleState[] states, double yawRate) {
+    for (int i = 0; i < states.length; i++) {
+      double vx = states[i].speedMetersPerSecond * states[i].angle.getCos();
+      double vy = states[i].speedMetersPerSecond * states[i].angle.getSin();
+      m_chassisX[i] = vx + yawRate * m_locations[i].getY();
+      m_chassisY[i] = vy - yawRate * m_locations[i].getX();
+    }
+    double chassisX = median(m_chassisX);
+    double chassisY = median(m_chassisY);
+
+    int slipMask = 0;
+    for (int i = 0; i < states.length; i++) {
+      // Wheel speed the chassis motion calls for, along the direction the wheel is pointing
+      double expectedX = chassisX - yawRate * m_locations[i].getY();
+      double expectedY = chassisY + yawRate * m_locations[i].getX();
+      double expected = expectedX * states[i].angle.getCos() + expectedY * states[i].angle.getSin();
+      double error = Math.abs(states[i].speedMetersPerSecond - expected);
+
+      boolean slipping = Math.max(Math.abs(expected), Math.abs(states[i].speedMetersPerSecond))
+              > Constants.Traction.kMinSlipCheckSpeed
+          && error > Constants.Traction.kSlipThresholdMetersPerSecond
+              + Constants.Traction.kSlipThresholdRatio * Math.abs(expected);
+
+      if (slipping) {
+        slipMask |= 1 << i;
+        m_tractionScale[i] = Math.max(Constants.Traction.kMinTractionScale,
+            m_tractionScale[i] * Constants.Traction.kSlipReduction);
+      } else {
+        m_tractionScale[i] = Math.min(1.0, m_tractionScale[i] + Constants.Traction.kTractionRecoveryPerLoop);
+      }
+    }
+    m_slipMask = slipMask;
+  }
+
+  /**
+   * Returns the modules found slipping on the last update.
+   *
+   * @return a bit mask with bit i set when module i is slipping
+   */
+  public int getSlipMask() {
+    return m_slipMask;
+  }
+
+  /**
+   * Returns how much of the commanded speed the drivetrain should get: the
+   * lowest traction factor among the given modules.
+   *
+   * @param mask bit i set for each module i that is being driven
+   * @return a factor from {@link Constants.Traction#kMinTractionScale} to 1
+   */
+  public double getTractionScale(int mask) {
+    double scale = 1.0;
+    for (int i = 0; i < m_tractionScale.length; i++) {
+      if ((mask & (1 << i)) != 0) {
+        scale = Math.min(scale, m_tractionScale[i]);
+      }
+    }
+    return scale;
+  }
+
+  private double median(double[] values) {
+    System.arraycopy(values, 0, m_sorted, 0, values.length);
+    Arrays.sort(m_sorted);
+    int middle = m_sorted.length / 2;
+    return m_sorted.length % 2 == 0 ? (m_sorted[middle - 1] + m_sorted[middle]) / 2 : m_sorted[middle];
+  }
+}
@@ -0,0 +1,238 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.sensors.AbsoluteSensorRange;
+import com.ctre.phoenix.sensors.CANCoder;
+import com.ctre.phoenix.sensors.CANCoderConfiguration;
+import com.ctre.phoenix.sensors.SensorInitializationStrategy;
+import com.revrobotics.CANSparkMax;
+import com.revrobotics.REVLibError;
+import com.revrobotics.CANSparkMax.FaultID;
+import com.revrobotics.CANSparkMaxLowLevel.MotorType;
+import com.revrobotics.CANSparkMaxLowLevel.PeriodicFrame;
+import com.revrobotics.RelativeEncoder;
+import com.revrobotics.SparkMaxPIDController;
+
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants;
+
+////The real module hardware: two NEOs on SPARK MAXes and a CANcoder for the absolute steering angle
+public class SparkMaxModuleIO implements SwerveModuleIO {
+
+  ////CANSparkMax motor controllers, ID them on REV Hardware Client or SparkMax Client
+  private final CANSparkMax m_drivingSparkMax; ////controls driving on a swerve module
+  private final CANSparkMax m_turningSparkMax; ////controls turning on a swerve module
+
+  private final RelativeEncoder m_drivingEncoder; ////encoder for driving
+  private final RelativeEncoder m_turningEncoder; ////encoder for turning
+  private final CANCoder m_canCoder; ////another turning encoder for the absolute position, ID on phoenix tuner
+
+  ////PID means Proportional Integral Derivative; uses an equation; accounts for "close enough"
+  ////formula is u(t) = kP(e(t)) + kI(integral 0 to t of (e(t)dt)) + kD(d(e(t))/dt),
+  ////tuning integral constant NOT recommended
+  private final SparkMaxPIDController m_drivingPIDController; ////PID for driving
+  private final SparkMaxPIDController m_turningPIDController; ////PID for turning
+
+  ////allows you to apply settings you made to the cancoder
+  private CANCoderConfiguration config = new CANCoderConfiguration();
+
+  /**
+   * Configures the driving and turning motor, encoder, and PID controller. This
+   * configuration is specific to the REV MAXSwerve Module built with NEOs,
+   * SPARKS MAX, and a Through Bore Encoder.
+   * @param drivingCANId the ID for the drive controller
+   * @param turningCANId the ID for the turn controller
+   * @param canCoderCANId the ID for the cancoder
+   */
+  public SparkMaxModuleIO(int drivingCANId, int turningCANId, int canCoderCANId) {
+    config.absoluteSensorRange = AbsoluteSensorRange.Unsigned_0_to_360;
+
+    ////boots the wheel to its current position rather than zero
+    config.initializationStrategy = SensorInitializationStrategy.BootToAbsolutePosition;
+
+    m_drivingSparkMax = new CANSparkMax(drivingCANId, MotorType.kBrushless);
+    m_turningSparkMax = new CANSparkMax(turningCANId, MotorType.kBrushless);
+
+    // Factory reset, so we get the SPARKS MAX to a known state before configuring
+    // them. This is useful in case a SPARK MAX is swapped out.
+    m_drivingSparkMax.restoreFactoryDefaults();
+    m_turningSparkMax.restoreFactoryDefaults();
+
+    // SDS Module is inverted relative to the MAXSwerve
+    m_drivingSparkMax.setInverted(true);;
+    m_turningSparkMax.setInverted(true);;
+
+    // Setup encoders and PID controllers for the driving and turning SPARKS MAX.
+    m_drivingEncoder = m_drivingSparkMax.getEncoder();
+    m_turningEncoder = m_turningSparkMax.getEncoder();
+    m_canCoder = new CANCoder(canCoderCANId);
+    m_drivingPIDController = m_drivingSparkMax.getPIDController();
+    m_turningPIDController = m_turningSparkMax.getPIDController();
+    m_drivingPIDController.setFeedbackDevice(m_drivingEncoder);
+    m_turningPIDController.setFeedbackDevice(m_turningEncoder);
+
+    // Apply position and velocity conversion factors for the driving encoder. The
+    // native units for position and velocity are rotations and RPM, respectively,
+    // but we want meters and meters per second to use with WPILib's swerve APIs.
+    m_drivingEncoder.setPositionConversionFactor(Constants.SwerveModule.kDrivingEncoderPositionFactor);
+    m_drivingEncoder.setVelocityConversionFactor(Constants.SwerveModule.kDrivingEncoderVelocityFactor);
+
+    // Apply position and velocity conversion factors for the turning encoder. We
+    // want these in radians and radians per second to use with WPILib's swerve
+    // APIs.
+    m_turningEncoder.setPositionConversionFactor(Constants.SwerveModule.kTurningEncoderPositionFactor);
+    m_turningEncoder.setVelocityConversionFactor(Constants.SwerveModule.kTurningEncoderVelocityFactor);
+
+    // Enable PID wrap around for the turning motor. This will allow the PID
+    // controller to go through 0 to get to the setpoint i.e. going from 350 degrees
+    // to 10 degrees will go through 0 rather than the other direction which is a
+    // longer route.
+    m_turningPIDController.setPositionPIDWrappingEnabled(true);
+    m_turningPIDController.setPositionPIDWrappingMinInput(Constants.SwerveModule.kTurningEncoderPositionPIDMinInput);
+    m_turningPIDController.setPositionPIDWrappingMaxInput(Constants.SwerveModule.kTurningEncoderPositionPIDMaxInput);
+
+    // Set the PID gains for the driving motor. Note these are example gains, and you
+    // may need to tune them for your own robot!
+    m_drivingPIDController.setP(Constants.SwerveModule.kDrivingP);
+    m_drivingPIDController.setI(Constants.SwerveModule.kDrivingI);
+    m_drivingPIDController.setD(Constants.SwerveModule.kDrivingD);
+    m_drivingPIDController.setFF(Constants.SwerveModule.kDrivingFF);
+    m_drivingPIDController.setOutputRange(Constants.SwerveModule.kDrivingMinOutput,
+      Constants.SwerveModule.kDrivingMaxOutput);
+
+    // Set the PID gains for the turning motor. Note these are example gains, and you
+    // may need to tune them for your own robot!
+    m_turningPIDController.setP(Constants.SwerveModule.kTurningP);
+    m_turningPIDController.setI(Constants.SwerveModule.kTurningI);
+    m_turningPIDController.setD(Constants.SwerveModule.kTurningD);
+    m_turningPIDController.setFF(Constants.SwerveModule.kTurningFF);
+    m_turningPIDController.setOutputRange(Constants.SwerveModule.kTurningMinOutput,
+        Constants.SwerveModule.kTurningMaxOutput);
+
+    m_drivingSparkMax.setIdleMode(Constants.SwerveModule.kDrivingMotorIdleMode);
+    m_turningSparkMax.setIdleMode(Constants.SwerveModule.kTurningMotorIdleMode);
+
+    //// Set the current limit to avoid current spikes so you wont damage the motor
+    m_drivingSparkMax.setSmartCurrentLimit(Constants.SwerveModule.kDrivingMotorCurrentLimit);
+    m_turningSparkMax.setSmartCurrentLimit(Constants.SwerveModule.kTurningMotorCurrentLimit);
+
+    // Send the driving position frame at a known, faster rate so odometry can
+    // tell how old each position reading is
+    m_drivingSparkMax.setPeriodicFramePeriod(PeriodicFrame.kStatus2, Constants.SwerveModule.kDrivingPositionFramePeriodMs);
+
+    // Save the SPARK MAX configurations. If a SPARK MAX browns out during
+    // operation, it will maintain the above configurations.
+    m_drivingSparkMax.burnFlash();
+    m_turningSparkMax.burnFlash();
+
+    // This allows time for the absolute position to be sent by the CANcoder (we know this isn't the best solution, we'll fix it later)
+    Timer.delay(1);
+  }
+
+  @Override
+  public double getDrivingPosition() {
+    return m_drivingEncoder.getPosition();
+  }
+
+  @Override
+  public double getDrivingVelocity() {
+    return m_drivingEncoder.getVelocity();
+  }
+
+  @Override
+  public double getSteeringPosition() {
+    return m_turningEncoder.getPosition();
+  }
+
+  @Override
+  public double getSteeringVelocity() {
+    return m_turningEncoder.getVelocity();
+  }
+
+  @Override
+  public double getAbsoluteSteeringDegrees() {
+    return m_canCoder.getAbsolutePosition();
+  }
+
+  @Override
+  public void setDrivingPosition(double meters) {
+    m_drivingEncoder.setPosition(meters);
+  }
+
+  @Override
+  public void setSteeringPosition(double radians) {
+    m_turningEncoder.setPosition(radians);
+  }
+
+  @Override
+  public void setReferences(double drivingVelocity, double steeringAngle, double steeringFeedforwardVolts) {
+    //another way to run your motors. first parameter is the value, second parameter is the control type
+    m_drivingPIDController.setReference(drivingVelocity, CANSparkMax.ControlType.kVelocity);
+    m_turningPIDController.setReference(steeringAngle, CANSparkMax.ControlType.kPosition, 0,
+        steeringFeedforwardVolts, SparkMaxPIDController.ArbFFUnits.kVoltage);
+  }
+
+  @Override
+  public void stop() {
+    m_drivingSparkMax.stopMotor();
+    m_turningSparkMax.stopMotor();
+  }
+
+  @Override
+  public double getDrivingCurrent() {
+    return m_drivingSparkMax.getOutputCurrent();
+  }
+
+  @Override
+  public double getTurningCurrent() {
+    return m_turningSparkMax.getOutputCurrent();
+  }
+
+  @Override
+  public double getDrivingSupplyCurrent() {
+    return m_drivingSparkMax.getOutputCurrent() * Math.abs(m_drivingSparkMax.getAppliedOutput());
+  }
+
+  @Override
+  public double getTurningSupplyCurrent() {
+    return m_turningSparkMax.getOutputCurrent() * Math.abs(m_turningSparkMax.getAppliedOutput());
+  }
+
+  @Override
+  public double getMotorTemperature() {
+    return Math.max(m_drivingSparkMax.getMotorTemperature(), m_turningSparkMax.getMotorTemperature());
+  }
+
+  @Override
+  public boolean hasCANError() {
+    return m_drivingSparkMax.getLastError() != REVLibError.kOk
+        || m_turningSparkMax.getLastError() != REVLibError.kOk
+        || m_canCoder.getLastError() != ErrorCode.OK;
+  }
+
+  ////a brownout also reboots the controller, so it counts as a reset
+  @Override
+  public boolean checkForReset() {
+    boolean hasReset = m_drivingSparkMax.getStickyFault(FaultID.kHasReset)
+        || m_turningSparkMax.getStickyFault(FaultID.kHasReset)
+        || m_drivingSparkMax.getStickyFault(FaultID.kBrownout)
+        || m_turningSparkMax.getStickyFault(FaultID.kBrownout);
+    if (hasReset) {
+      m_drivingSparkMax.clearFaults();
+      m_turningSparkMax.clearFaults();
+    }
+    return hasReset;
+  }
+
+  ////a blocking CAN configuration write on each controller
+  @Override
+  public void setCurrentLimits(int drivingAmps, int turningAmps) {
+    m_drivingSparkMax.setSmartCurrentLimit(drivingAmps);
+    m_turningSparkMax.setSmartCurrentLimit(turningAmps);
+  }
+}
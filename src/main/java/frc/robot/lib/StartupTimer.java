@@ -0,0 +1,61 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Times the robot program's startup, from the JVM starting to the end of
+ * robotInit, when the robot code is ready.
+ *
+ * <p>The JVM's own startup comes from its uptime when main() starts; after
+ * that each step marks its end. {@link #report()} logs the steps with the
+ * number of classes loaded and whether the class-data sharing archive
+ * build.gradle deploys was used. It only uses the clock and the management
+ * beans until then, since the HAL is not up when main() starts.
+ *
+ * <p>When the JVM is started with -Drobot.recordStartup=true, the robot
+ * exits a few seconds after startup, so a JVM started with
+ * -XX:ArchiveClassesAtExit writes out the classes it loaded.
+ */
+public final class StartupTimer {
+  private static final StringBuilder m_steps = new StringBuilder();
+  private static long m_jvmMillis = -1;
+  private static long m_lastNanos;
+  private static long m_startNanos;
+
+  private StartupTimer() {}
+
+  /** Starts timing. Call first thing in main(). */
+  public static void start() {
+    m_jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+    m_startNanos = System.nanoTime();
+    m_lastNanos = m_startNanos;
+  }
+
+  /** Marks the end of a startup step. */
+  public static void mark(String step) {
+    long now = System.nanoTime();
+    m_steps.append(String.format(", %s %.0f ms", step, (now - m_lastNanos) * 1e-6));
+    m_lastNanos = now;
+  }
+
+  /** Logs the startup time, by step. Call at the end of robotInit. */
+  public static void report() {
+    if (m_jvmMillis < 0) {
+      return;
+    }
+    String sharing = System.getProperty("java.vm.info", "").contains("sharing") ? "on" : "off";
+    DataLog.log(String.format("Startup: ready %.0f ms after JVM start: JVM %d ms%s; %d classes loaded, CDS %s",
+        m_jvmMillis + (m_lastNanos - m_startNanos) * 1e-6, m_jvmMillis, m_steps,
+        ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(), sharing));
+  }
+
+  /** @return true if this run only records the classes loaded at startup */
+  public static boolean isRecording() {
+    return Boolean.getBoolean("robot.recordStartup");
+  }
+}
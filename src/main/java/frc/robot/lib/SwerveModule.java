@@ -5,15 +5,7 @@
 
 package frc.robot.lib;
 
-import com.ctre.phoenix.sensors.AbsoluteSensorRange;
-import com.ctre.phoenix.sensors.CANCoder;
-import com.ctre.phoenix.sensors.CANCoderConfiguration;
-import com.ctre.phoenix.sensors.SensorInitializationStrategy;
-import com.revrobotics.CANSparkMax;
-import com.revrobotics.CANSparkMaxLowLevel.MotorType;
-import com.revrobotics.RelativeEncoder;
-import com.revrobotics.SparkMaxPIDController;
-
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
@@ -28,125 +20,58 @@ import frc.robot.Constants;
 
 public class SwerveModule {
 
-  ////CANSparkMax motor controllers, ID them on REV Hardware Client or SparkMax Client
-  private final CANSparkMax m_drivingSparkMax; ////controls driving on a swerve module
-  private final CANSparkMax m_turningSparkMax; ////controls turning on a swerve module
-
-  private final RelativeEncoder m_drivingEncoder; ////encoder for driving
-  private final RelativeEncoder m_turningEncoder; ////encoder for turning
-  private final CANCoder m_canCoder; ////another turning encoder for the absolute position, ID on phoenix tuner
-
-  ////PID means Proportional Integral Derivative; uses an equation; accounts for "close enough"
-  ////formula is u(t) = kP(e(t)) + kI(integral 0 to t of (e(t)dt)) + kD(d(e(t))/dt), 
-  ////tuning integral constant NOT recommended
-  private final SparkMaxPIDController m_drivingPIDController; ////PID for driving
-  private final SparkMaxPIDController m_turningPIDController; ////PID for turning
+  ////the motors and encoders, real or simulated
+  private final SwerveModuleIO m_io;
 
   private double m_chassisAngularOffset = 0; ////allows individual wheels to offset correctly
 
   ////SwerveModuleState objects stores the desired speed in meters per second and angle in radians for your wheels
   ////Used to help set your wheels running at a certain speed in a direction
-  private SwerveModuleState m_desiredState = new SwerveModuleState(0.0, new Rotation2d());
-  
-  ////allows you to apply settings you made to the cancoder
-  private CANCoderConfiguration config = new CANCoderConfiguration();
+  ////set on the drivetrain's control loop thread and read by the health checks on the main thread, so volatile;
+  ////each call stores a new state, never one that is changed afterwards
+  private volatile SwerveModuleState m_desiredState = new SwerveModuleState(0.0, new Rotation2d());
   
+  ////latest driving encoder position seen by sampleOdometry(), when it was first read, and the
+  ////velocity at the latest read
+  private double m_sampleTime = Double.NaN;
+  private double m_sampleDistance = 0;
+  private double m_sampleVelocity = 0;
+
+  ////when the steering encoder was last re-seeded from the cancoder
+  private double m_lastResyncTime = Double.NEGATIVE_INFINITY;
+
+  ////the last angle actually steered to, in the chassis frame, and when, for the steer-hold and feedforward;
+  ////volatile since setDesiredState() moves between the main thread and the control loop as it is toggled
+  private volatile Rotation2d m_steeringSetpoint = new Rotation2d();
+  private volatile double m_steeringSetpointTime = Double.NaN;
+
   /**
-   * Constructs a MAXSwerveModule and configures the driving and turning motor,
-   * encoder, and PID controller. This configuration is specific to the REV
-   * MAXSwerve Module built with NEOs, SPARKS MAX, and a Through Bore
-   * Encoder.
+   * Constructs a MAXSwerveModule on the real hardware. This configuration is
+   * specific to the REV MAXSwerve Module built with NEOs, SPARKS MAX, and a
+   * CANcoder.
    * @param drivingCANId the ID for the drive controller
    * @param turningCANId the ID for the turn controller
    * @param canCoderCANId the ID for the cancoder
    * @param chassisAngularOffset the offset to make the wheels face forward
    */
   public SwerveModule(int drivingCANId, int turningCANId, int canCoderCANId, double chassisAngularOffset) {
-    config.absoluteSensorRange = AbsoluteSensorRange.Unsigned_0_to_360;
-
-    ////boots the wheel to its current position rather than zero
-    config.initializationStrategy = SensorInitializationStrategy.BootToAbsolutePosition;
-    
-    m_drivingSparkMax = new CANSparkMax(drivingCANId, MotorType.kBrushless);
-    m_turningSparkMax = new CANSparkMax(turningCANId, MotorType.kBrushless);
-
-    // Factory reset, so we get the SPARKS MAX to a known state before configuring
-    // them. This is useful in case a SPARK MAX is swapped out.
-    m_drivingSparkMax.restoreFactoryDefaults();
-    m_turningSparkMax.restoreFactoryDefaults();
-
-    // SDS Module is inverted relative to the MAXSwerve
-    m_drivingSparkMax.setInverted(true);;
-    m_turningSparkMax.setInverted(true);;
-
-    // Setup encoders and PID controllers for the driving and turning SPARKS MAX.
-    m_drivingEncoder = m_drivingSparkMax.getEncoder();
-    m_turningEncoder = m_turningSparkMax.getEncoder();
-    m_canCoder = new CANCoder(canCoderCANId);
-    m_drivingPIDController = m_drivingSparkMax.getPIDController();
-    m_turningPIDController = m_turningSparkMax.getPIDController();
-    m_drivingPIDController.setFeedbackDevice(m_drivingEncoder);
-    m_turningPIDController.setFeedbackDevice(m_turningEncoder);
-
-    // Apply position and velocity conversion factors for the driving encoder. The
-    // native units for position and velocity are rotations and RPM, respectively,
-    // but we want meters and meters per second to use with WPILib's swerve APIs.
-    m_drivingEncoder.setPositionConversionFactor(Constants.SwerveModule.kDrivingEncoderPositionFactor);
-    m_drivingEncoder.setVelocityConversionFactor(Constants.SwerveModule.kDrivingEncoderVelocityFactor);
-
-    // Apply position and velocity conversion factors for the turning encoder. We
-    // want these in radians and radians per second to use with WPILib's swerve
-    // APIs.
-    m_turningEncoder.setPositionConversionFactor(Constants.SwerveModule.kTurningEncoderPositionFactor);
-    m_turningEncoder.setVelocityConversionFactor(Constants.SwerveModule.kTurningEncoderVelocityFactor);
-
-    // Enable PID wrap around for the turning motor. This will allow the PID
-    // controller to go through 0 to get to the setpoint i.e. going from 350 degrees
-    // to 10 degrees will go through 0 rather than the other direction which is a
-    // longer route.
-    m_turningPIDController.setPositionPIDWrappingEnabled(true);
-    m_turningPIDController.setPositionPIDWrappingMinInput(Constants.SwerveModule.kTurningEncoderPositionPIDMinInput);
-    m_turningPIDController.setPositionPIDWrappingMaxInput(Constants.SwerveModule.kTurningEncoderPositionPIDMaxInput);
-
-    // Set the PID gains for the driving motor. Note these are example gains, and you
-    // may need to tune them for your own robot!
-    m_drivingPIDController.setP(Constants.SwerveModule.kDrivingP);
-    m_drivingPIDController.setI(Constants.SwerveModule.kDrivingI);
-    m_drivingPIDController.setD(Constants.SwerveModule.kDrivingD);
-    m_drivingPIDController.setFF(Constants.SwerveModule.kDrivingFF);
-    m_drivingPIDController.setOutputRange(Constants.SwerveModule.kDrivingMinOutput,
-      Constants.SwerveModule.kDrivingMaxOutput);
-
-    // Set the PID gains for the turning motor. Note these are example gains, and you
-    // may need to tune them for your own robot!
-    m_turningPIDController.setP(Constants.SwerveModule.kTurningP);
-    m_turningPIDController.setI(Constants.SwerveModule.kTurningI);
-    m_turningPIDController.setD(Constants.SwerveModule.kTurningD);
-    m_turningPIDController.setFF(Constants.SwerveModule.kTurningFF);
-    m_turningPIDController.setOutputRange(Constants.SwerveModule.kTurningMinOutput,
-        Constants.SwerveModule.kTurningMaxOutput);
-
-    m_drivingSparkMax.setIdleMode(Constants.SwerveModule.kDrivingMotorIdleMode);
-    m_turningSparkMax.setIdleMode(Constants.SwerveModule.kTurningMotorIdleMode);
-
-    //// Set the current limit to avoid current spikes so you wont damage the motor
-    m_drivingSparkMax.setSmartCurrentLimit(Constants.SwerveModule.kDrivingMotorCurrentLimit);
-    m_turningSparkMax.setSmartCurrentLimit(Constants.SwerveModule.kTurningMotorCurrentLimit);
-
-    // Save the SPARK MAX configurations. If a SPARK MAX browns out during
-    // operation, it will maintain the above configurations.
-    m_drivingSparkMax.burnFlash();
-    m_turningSparkMax.burnFlash();
-
-    // This allows time for the absolute position to be sent by the CANcoder (we know this isn't the best solution, we'll fix it later)
-    Timer.delay(1);
+    this(new SparkMaxModuleIO(drivingCANId, turningCANId, canCoderCANId), chassisAngularOffset);
+  }
+
+  /**
+   * Constructs a module on top of any module hardware, e.g. a simulated one.
+   * @param io the module hardware
+   * @param chassisAngularOffset the offset to make the wheels face forward
+   */
+  public SwerveModule(SwerveModuleIO io, double chassisAngularOffset) {
+    m_io = io;
 
     // CANcoder angle is measured in degrees so we need to convert that into radians
     m_chassisAngularOffset = chassisAngularOffset; 
-    m_desiredState.angle = Rotation2d.fromDegrees(m_canCoder.getAbsolutePosition());
-    m_drivingEncoder.setPosition(0);
-    m_turningEncoder.setPosition(Math.toRadians(m_canCoder.getAbsolutePosition()));
-    
+    m_desiredState.angle = Rotation2d.fromDegrees(m_io.getAbsoluteSteeringDegrees());
+    m_steeringSetpoint = m_desiredState.angle.minus(Rotation2d.fromRadians(m_chassisAngularOffset));
+    m_io.setDrivingPosition(0);
+    m_io.setSteeringPosition(Math.toRadians(m_io.getAbsoluteSteeringDegrees()));
   }
 
   /**
@@ -157,8 +82,8 @@ public class SwerveModule {
   public SwerveModuleState getState() {
     // Apply chassis angular offset to the encoder position to get the position
     // relative to the chassis.
-    return new SwerveModuleState(m_drivingEncoder.getVelocity(),
-        new Rotation2d(m_turningEncoder.getPosition() - m_chassisAngularOffset));
+    return new SwerveModuleState(m_io.getDrivingVelocity(),
+        new Rotation2d(m_io.getSteeringPosition() - m_chassisAngularOffset));
   }
 
   /**
@@ -170,75 +95,229 @@ public class SwerveModule {
     // Apply chassis angular offset to the encoder position to get the position
     // relative to the chassis.
     return new SwerveModulePosition(
-        m_drivingEncoder.getPosition(),
-        new Rotation2d(m_turningEncoder.getPosition() - m_chassisAngularOffset));
+        m_io.getDrivingPosition(),
+        new Rotation2d(m_io.getSteeringPosition() - m_chassisAngularOffset));
   }
 
   /**
    * Sets the desired state for the module.
    *
+   * <p>The setpoint is conditioned before it is sent:
+   * <ul>
+   *   <li>A speed under {@link Constants.SwerveModule#kSteerHoldSpeed} keeps the
+   *       last angle, so noise around a stop does not swing the wheel around.
+   *       An exact zero still steers, which is how setX() and stops that name
+   *       an angle are asked for.</li>
+   *   <li>After optimizing, the drive speed is scaled by the cosine of the
+   *       steering error, so a wheel still turning does not push sideways.</li>
+   *   <li>The steering loop gets a feedforward on how fast the setpoint
+   *       is turning, so it tracks a turning setpoint instead of lagging it.</li>
+   * </ul>
+   *
    * @param desiredState Desired state with speed and angle.
    */
   public void setDesiredState(SwerveModuleState desiredState) {
+    double now = Timer.getFPGATimestamp();
+    double speed = desiredState.speedMetersPerSecond;
+    Rotation2d angle = desiredState.angle;
+    if (speed != 0 && Math.abs(speed) < Constants.SwerveModule.kSteerHoldSpeed) {
+      angle = m_steeringSetpoint;
+    }
+
+    // The module points the same way for angles half a turn apart, so the rate is taken modulo pi
+    double steeringRate = 0;
+    double dt = now - m_steeringSetpointTime;
+    if (dt > 0 && dt < Constants.SwerveModule.kMaxSteeringFeedforwardDt) {
+      steeringRate = MathUtil.angleModulus(2 * (angle.getRadians() - m_steeringSetpoint.getRadians())) / 2 / dt;
+      if (Math.abs(steeringRate) > Constants.SwerveModule.kMaxSteeringFeedforwardVelocity) {
+        steeringRate = 0;
+      }
+    }
+    m_steeringSetpoint = angle;
+    m_steeringSetpointTime = now;
+
     // Apply chassis angular offset to the desired state.
     SwerveModuleState correctedDesiredState = new SwerveModuleState();
-    correctedDesiredState.speedMetersPerSecond = desiredState.speedMetersPerSecond;
-    correctedDesiredState.angle = desiredState.angle.plus(Rotation2d.fromRadians(m_chassisAngularOffset));
-
-    
+    correctedDesiredState.speedMetersPerSecond = speed;
+    correctedDesiredState.angle = angle.plus(Rotation2d.fromRadians(m_chassisAngularOffset));
 
     // Optimize the reference state to avoid spinning further than 90 degrees (allow shortcuts for the wheels to turn to).
+    double steeringPosition = m_io.getSteeringPosition();
     SwerveModuleState optimizedDesiredState = SwerveModuleState.optimize(correctedDesiredState,
-        new Rotation2d(m_turningEncoder.getPosition()));
-
-    // Command driving and turning SPARKS MAX towards their respective setpoints.
-    m_drivingPIDController.setP(Constants.SwerveModule.kDrivingP);
-    m_drivingPIDController.setD(Constants.SwerveModule.kDrivingD);
+        new Rotation2d(steeringPosition));
 
-    //another way to run your motors. first parameter is the value, second parameter is the control type
-    m_drivingPIDController.setReference(optimizedDesiredState.speedMetersPerSecond, CANSparkMax.ControlType.kVelocity);
-    m_turningPIDController.setReference(optimizedDesiredState.angle.getRadians(), CANSparkMax.ControlType.kPosition);
+    // Only drive as much as the wheel points the right way; optimize() keeps the error within 90 degrees
+    double cosineError = Math.cos(optimizedDesiredState.angle.getRadians() - steeringPosition);
+    double drivingVelocity = optimizedDesiredState.speedMetersPerSecond * Math.max(cosineError, 0);
 
+    // Command driving and turning SPARKS MAX towards their respective setpoints.
+    m_io.setReferences(drivingVelocity, optimizedDesiredState.angle.getRadians(),
+        Constants.SwerveModule.kTurningKv * steeringRate);
 
     m_desiredState = desiredState;
-
   }
 
   /** Zeroes all the SwerveModule encoders. */
   public void resetEncoders() {
-    m_drivingEncoder.setPosition(0);
+    m_io.setDrivingPosition(0);
+    m_sampleTime = Double.NaN;
+  }
+
+  /**
+   * Reads the driving encoder to tell whether its frames are still arriving.
+   * The SPARK MAX does not timestamp its frames, so a new frame is only
+   * recognized by its position changing. The velocity is taken on every read,
+   * so a wheel that has stopped is seen to have stopped.
+   *
+   * @param now the FPGA time of this read, in seconds
+   */
+  public void sampleOdometry(double now) {
+    double distance = m_io.getDrivingPosition();
+    m_sampleVelocity = m_io.getDrivingVelocity();
+    if (Double.isNaN(m_sampleTime) || distance != m_sampleDistance) {
+      m_sampleTime = now;
+      m_sampleDistance = distance;
+    }
+  }
+
+  /**
+   * Checks whether the latest driving frame is too old to trust. A wheel that is
+   * standing still sends the same position over and over, so its frames never go stale.
+   *
+   * @param now the current FPGA time, in seconds
+   * @return true if the module is moving and no new frame has arrived recently
+   */
+  public boolean isOdometryStale(double now) {
+    return Double.isNaN(m_sampleTime)
+        || (Math.abs(m_sampleVelocity) > Constants.SwerveModule.kStationaryDrivingVelocity
+            && now - m_sampleTime > Constants.SwerveModule.kMaxOdometrySampleAge);
   }
 
   public double getSteeringRelativePosition(){
-   return m_turningEncoder.getPosition();
+   return m_io.getSteeringPosition();
   }
 
   public double getSteeringAbsolutePosition(){
-    return m_canCoder.getAbsolutePosition();
+    return m_io.getAbsoluteSteeringDegrees();
   }
 
   public double getDrivingRelativePosition(){
-    return m_drivingEncoder.getPosition();
+    return m_io.getDrivingPosition();
   }
 
   public double getDrivingVelocity(){
-    return m_drivingEncoder.getVelocity();
+    return m_io.getDrivingVelocity();
   }
-  
-  public void evilMode() //Typhoon Reference :)
-  {
-    m_drivingSparkMax.setSmartCurrentLimit(Constants.SwerveModule.kDrivingMotorCurrentLimit + 20);
-    m_turningSparkMax.setSmartCurrentLimit(Constants.SwerveModule.kTurningMotorCurrentLimit + 20);
+
+  public double getSteeringVelocity(){
+    return m_io.getSteeringVelocity();
   }
 
-  public void goodMode()
-  {
-    m_drivingSparkMax.setSmartCurrentLimit(Constants.SwerveModule.kDrivingMotorCurrentLimit);
-    m_turningSparkMax.setSmartCurrentLimit(Constants.SwerveModule.kTurningMotorCurrentLimit);
+  public double getDrivingCurrent(){
+    return m_io.getDrivingCurrent();
+  }
+
+  public double getTurningCurrent(){
+    return m_io.getTurningCurrent();
   }
 
-  public RelativeEncoder getTurningEncoder()
+  /** Returns what the driving motor draws from the battery, in amps, which is less than its motor current below full speed. */
+  public double getDrivingSupplyCurrent(){
+    return m_io.getDrivingSupplyCurrent();
+  }
+
+  /** Returns what the turning motor draws from the battery, in amps. */
+  public double getTurningSupplyCurrent(){
+    return m_io.getTurningSupplyCurrent();
+  }
+
+  /** Returns the hotter of the two motor temperatures, in degrees Celsius. */
+  public double getMotorTemperature(){
+    return m_io.getMotorTemperature();
+  }
+
+  /** Returns the speed last commanded through {@link #setDesiredState}, in meters per second. */
+  public double getDesiredSpeed(){
+    return m_desiredState.speedMetersPerSecond;
+  }
+
+  /**
+   * Returns how far the NEO steering encoder has drifted from the CANcoder.
+   *
+   * @return the wrapped difference, in radians, from -pi to pi
+   */
+  public double getSteeringDivergence(){
+    return MathUtil.angleModulus(m_io.getSteeringPosition() - Math.toRadians(m_io.getAbsoluteSteeringDegrees()));
+  }
+
+  /**
+   * Checks whether the last read of each device on this module failed.
+   * Call this right after reading the module so the errors belong to those reads.
+   *
+   * @return true if any controller or the CANcoder reported an error
+   */
+  public boolean hasCANError(){
+    return m_io.hasCANError();
+  }
+
+  /**
+   * Checks whether either SPARK MAX has rebooted (e.g. browned out) since the last call.
+   * Each reset is only reported once.
+   *
+   * @return true if a controller has reset
+   */
+  public boolean checkForReset(){
+    return m_io.checkForReset();
+  }
+
+  /** Seeds the NEO steering encoder from the CANcoder's absolute position. */
+  public void syncSteeringEncoder(){
+    m_io.setSteeringPosition(Math.toRadians(m_io.getAbsoluteSteeringDegrees()));
+  }
+
+  /**
+   * Re-seeds the NEO steering encoder when it has drifted away from the CANcoder.
+   * This only happens while the module is stationary, since the two encoders'
+   * CAN frames arrive at different times, and at most once per
+   * {@link Constants.SwerveModule#kSteeringResyncMinIntervalSeconds}.
+   *
+   * @param divergence the latest {@link #getSteeringDivergence()}, so the CANcoder is not read again
+   * @return true if the encoder was re-seeded
+   */
+  public boolean resyncSteeringIfDrifted(double divergence){
+    if (Math.abs(divergence) < Constants.SwerveModule.kSteeringResyncThresholdRadians
+        || Math.abs(m_desiredState.speedMetersPerSecond) > Constants.SwerveModule.kStationaryDrivingVelocity
+        || Math.abs(m_io.getDrivingVelocity()) > Constants.SwerveModule.kStationaryDrivingVelocity
+        || Math.abs(m_io.getSteeringVelocity()) > Constants.SwerveModule.kStationarySteeringVelocity) {
+      return false;
+    }
+
+    double now = Timer.getFPGATimestamp();
+    if (now - m_lastResyncTime < Constants.SwerveModule.kSteeringResyncMinIntervalSeconds) {
+      return false;
+    }
+    m_lastResyncTime = now;
+
+    // Subtracting the divergence keeps the encoder on the same turn it is already on
+    m_io.setSteeringPosition(m_io.getSteeringPosition() - divergence);
+    return true;
+  }
+
+  /** Cuts output to both motors, used when the module has been taken out of service. */
+  public void stop(){
+    m_io.stop();
+    m_desiredState = new SwerveModuleState(0.0, m_desiredState.angle);
+  }
+  
+  /**
+   * Sets the smart current limits of both motors. This is a blocking CAN
+   * configuration write, so only call it when the limits actually change.
+   *
+   * @param drivingAmps the driving motor limit
+   * @param turningAmps the turning motor limit
+   */
+  public void setCurrentLimits(int drivingAmps, int turningAmps)
   {
-    return  m_turningEncoder;
+    m_io.setCurrentLimits(drivingAmps, turningAmps);
   }
 }
\ No newline at end of file
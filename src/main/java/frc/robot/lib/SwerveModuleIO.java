@@ -0,0 +1,70 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+/**
+ * The hardware of one swerve module: a velocity-controlled drive motor, a
+ * position-controlled steering motor with a relative encoder, and an absolute
+ * steering encoder. {@link SwerveModule} holds all the module logic and talks to
+ * the hardware only through this, so the same logic can run against the real
+ * controllers or a simulated module.
+ */
+public interface SwerveModuleIO {
+  /** @return the driving encoder position, in meters */
+  double getDrivingPosition();
+
+  /** @return the driving encoder velocity, in meters per second */
+  double getDrivingVelocity();
+
+  /** @return the relative steering encoder position, in radians */
+  double getSteeringPosition();
+
+  /** @return the relative steering encoder velocity, in radians per second */
+  double getSteeringVelocity();
+
+  /** @return the absolute steering encoder position, in degrees from 0 to 360 */
+  double getAbsoluteSteeringDegrees();
+
+  void setDrivingPosition(double meters);
+
+  void setSteeringPosition(double radians);
+
+  /**
+   * Commands the closed-loop setpoints.
+   *
+   * @param drivingVelocity the wheel speed, in meters per second
+   * @param steeringAngle the steering encoder position, in radians
+   * @param steeringFeedforwardVolts voltage added to the steering loop's output, for a moving setpoint
+   */
+  void setReferences(double drivingVelocity, double steeringAngle, double steeringFeedforwardVolts);
+
+  /** Cuts output to both motors. */
+  void stop();
+
+  /** @return the driving motor current, in amps */
+  double getDrivingCurrent();
+
+  /** @return the turning motor current, in amps */
+  double getTurningCurrent();
+
+  /** @return the driving motor's draw from the battery, in amps: its motor current times its duty cycle */
+  double getDrivingSupplyCurrent();
+
+  /** @return the turning motor's draw from the battery, in amps: its motor current times its duty cycle */
+  double getTurningSupplyCurrent();
+
+  /** @return the hotter of the two motor temperatures, in degrees Celsius */
+  double getMotorTemperature();
+
+  /** @return true if the last read of any device failed */
+  boolean hasCANError();
+
+  /** @return true if a controller has reset since the last call */
+  boolean checkForReset();
+
+  /** Sets the motor current limits. May be a blocking configuration write. */
+  void setCurrentLimits(int drivingAmps, int turningAmps);
+}
@@ -0,0 +1,210 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import frc.robot.Constants;
+
+/**
+ * Runs the robot's background tasks at their own rates on one tick, halfway
+ * between main loop cycles.
+ *
+ * <p>Each task runs every whole number of ticks, and gets the phase (which of
+ * those ticks) with the least work already on it, so tasks with the same
+ * period do not all land in the same tick. Tasks run highest priority first.
+ * When the tick starts late because the main loop ran long, or the tasks in
+ * it have used up the cycle budget, only high priority tasks run; the rest are
+ * deferred to the next tick. A low priority task deferred for a whole period
+ * is skipped instead. Each task's measured rate, jitter, run time and budget
+ * overruns are published under "Tasks/".
+ */
+public class TaskScheduler {
+  public enum Priority { HIGH, NORMAL, LOW }
+
+  private static final double kTick = Constants.Tasks.kTickSeconds;
+
+  private static final class Task {
+    final String name;
+    final Runnable callback;
+    final Priority priority;
+    final int periodTicks;
+    final double budgetSeconds;
+
+    // The tick the task is next due on
+    long nextTick;
+
+    double lastRunTime = Double.NaN;
+    double meanInterval;
+    double jitter = 0;
+    double maxJitter = 0;
+    double meanRunTime = 0;
+    long runs = 0;
+    long deferrals = 0;
+    long skips = 0;
+    long overruns = 0;
+
+    Task(String name, Runnable callback, Priority priority, int periodTicks, double budgetSeconds) {
+      this.name = name;
+      this.callback = callback;
+      this.priority = priority;
+      this.periodTicks = periodTicks;
+      this.budgetSeconds = budgetSeconds;
+      meanInterval = periodTicks * kTick;
+    }
+  }
+
+  // Sorted by priority, then by when they were added
+  private final List<Task> m_tasks = new ArrayList<>();
+  private final int[] m_load = new int[Constants.Tasks.kLoadWindowTicks];
+  private final DoubleSupplier m_clock;
+  // When tick 0 was due; the earliest (start - tick * period) seen so far
+  private double m_scheduleStart = Double.NaN;
+  private long m_tick = 0;
+
+  public TaskScheduler() {
+    this(Timer::getFPGATimestamp);
+  }
+
+  /** Creates a scheduler that reads the time from the given clock, in seconds. */
+  TaskScheduler(DoubleSupplier clock) {
+    m_clock = clock;
+    add("Tasks", this::publish, Constants.Tasks.kPublishPeriodSeconds, Priority.LOW,
+        Constants.Tasks.kDefaultTaskBudgetSeconds);
+  }
+
+  /**
+   * Adds a periodic task.
+   *
+   * @param name the name the task is reported under
+   * @param callback the work to do
+   * @param periodSeconds how often to run it, rounded to whole ticks
+   * @param priority which work gives way when a cycle runs long
+   * @param budgetSeconds how long one run should take; longer runs are reported as overruns
+   */
+  public void add(String name, Runnable callback, double periodSeconds, Priority priority, double budgetSeconds) {
+    int periodTicks = Math.max(1, (int) Math.round(periodSeconds / kTick));
+
+    // Pick the phase whose ticks carry the fewest tasks so far
+    int window = m_load.length;
+    int bestPhase = 0;
+    int bestLoad = Integer.MAX_VALUE;
+    for (int phase = 0; phase < Math.min(periodTicks, window); phase++) {
+      int load = 0;
+      for (int t = phase; t < window; t += periodTicks) {
+        load += m_load[t];
+      }
+      if (load < bestLoad) {
+        bestLoad = load;
+        bestPhase = phase;
+      }
+    }
+    for (int t = bestPhase; t < window; t += periodTicks) {
+      m_load[t]++;
+    }
+
+    Task task = new Task(name, callback, priority, periodTicks, budgetSeconds);
+    task.nextTick = m_tick - m_tick % periodTicks + bestPhase;
+    if (task.nextTick < m_tick) {
+      task.nextTick += periodTicks;
+    }
+
+    int index = 0;
+    while (index < m_tasks.size() && m_tasks.get(index).priority.compareTo(priority) <= 0) {
+      index++;
+    }
+    m_tasks.add(index, task);
+  }
+
+  /** Runs the tasks due this tick. Called every tick by the robot. */
+  public void run() {
+    double start = m_clock.getAsDouble();
+    if (Double.isNaN(m_scheduleStart)) {
+      m_scheduleStart = start;
+    } else {
+      // TimedRobot calls once for every tick, running any it fell behind on back to back, so the
+      // tick is a count of calls rather than something read off the clock
+      m_tick++;
+    }
+    // A call is never earlier than its tick was due, so the earliest call seen so far gives the
+    // schedule; the first call, usually held up behind the first main loop cycle, does not set it
+    m_scheduleStart = Math.min(m_scheduleStart, start - m_tick * kTick);
+    double lateness = start - (m_scheduleStart + m_tick * kTick);
+    boolean late = lateness > Constants.Tasks.kLateThresholdSeconds;
+
+    for (Task task : m_tasks) {
+      if (task.nextTick > m_tick) {
+        continue;
+      }
+
+      double now = m_clock.getAsDouble();
+      if (task.priority != Priority.HIGH && (late || now - start > Constants.Tasks.kCycleBudgetSeconds)) {
+        if (task.priority == Priority.LOW && m_tick - task.nextTick >= task.periodTicks - 1) {
+          task.skips++;
+          task.nextTick += task.periodTicks;
+        } else {
+          task.deferrals++;
+        }
+        continue;
+      }
+
+      task.callback.run();
+      double end = m_clock.getAsDouble();
+      record(task, now, end - now);
+
+      // Stay on the task's phase; any whole periods missed are dropped rather than run back to back
+      task.nextTick += task.periodTicks;
+      if (task.nextTick <= m_tick) {
+        long missed = (m_tick - task.nextTick) / task.periodTicks + 1;
+        task.skips += missed;
+        task.nextTick += missed * task.periodTicks;
+      }
+    }
+  }
+
+  private void record(Task task, double startTime, double runTime) {
+    if (!Double.isNaN(task.lastRunTime)) {
+      double interval = startTime - task.lastRunTime;
+      double jitter = Math.abs(interval - task.periodTicks * kTick);
+      task.meanInterval += (interval - task.meanInterval) * 0.1;
+      task.jitter += (jitter - task.jitter) * 0.1;
+      task.maxJitter = Math.max(task.maxJitter, jitter);
+    }
+    task.lastRunTime = startTime;
+    task.runs++;
+    task.meanRunTime += (runTime - task.meanRunTime) * (task.runs == 1 ? 1 : 0.1);
+
+    if (runTime > task.budgetSeconds) {
+      task.overruns++;
+      if (task.overruns == 1) {
+        DataLog.log(String.format("Task %s took %.2f ms, budget %.2f ms",
+            task.name, runTime * 1000, task.budgetSeconds * 1000));
+      }
+    }
+  }
+
+  /** Publishes each task's measured rate and jitter under "Tasks/". */
+  private void publish() {
+    if (!LoopGovernor.isEnabled(LoopGovernor.Work.DIAGNOSTICS)) {
+      return;
+    }
+    for (Task task : m_tasks) {
+      String prefix = "Tasks/" + task.name + "/";
+      SmartDashboard.putNumber(prefix + "RateHz", 1 / task.meanInterval);
+      SmartDashboard.putNumber(prefix + "JitterMs", task.jitter * 1000);
+      SmartDashboard.putNumber(prefix + "MaxJitterMs", task.maxJitter * 1000);
+      SmartDashboard.putNumber(prefix + "RunMs", task.meanRunTime * 1000);
+      SmartDashboard.putNumber(prefix + "Overruns", task.overruns);
+      SmartDashboard.putNumber(prefix + "Deferrals", task.deferrals);
+      SmartDashboard.putNumber(prefix + "Skips", task.skips);
+    }
+  }
+}
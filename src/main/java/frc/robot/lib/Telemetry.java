@@ -10,6 +10,7 @@ import edu.wpi.first.wpilibj.livewindow.LiveWindow;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 import frc.robot.Robot;
+import frc.robot.lib.TaskScheduler.Priority;
 
 public final class Telemetry {
   private static boolean m_isAllTelemetryEnabled = false;
@@ -18,9 +19,9 @@ public final class Telemetry {
   public static void start() {
     SmartDashboard.putBoolean("EnableAllTelemetry", m_isAllTelemetryEnabled);
 
-    Robot.addCustomPeriodic(Telemetry::updateTelemetrySetting, 1);
-    Robot.addCustomPeriodic(Telemetry::updateMatchTime, 0.2);
-    Robot.addCustomPeriodic(Telemetry::updateFPGATimestamp, 3);
+    Robot.addCustomPeriodic("TelemetrySetting", Telemetry::updateTelemetrySetting, 1, Priority.LOW);
+    Robot.addCustomPeriodic("MatchTime", Telemetry::updateMatchTime, 0.2, Priority.LOW);
+    Robot.addCustomPeriodic("FPGATimestamp", Telemetry::updateFPGATimestamp, 3, Priority.LOW);
   }
 
   /** This periodic function supports enabling/disabling the full stream of telemetry pushed to LiveWindow. */
@@ -28,11 +29,16 @@ public final class Telemetry {
     boolean isAllTelemetryEnabled = SmartDashboard.getBoolean("EnableAllTelemetry", m_isAllTelemetryEnabled);
     if (m_isAllTelemetryEnabled != isAllTelemetryEnabled) {
       m_isAllTelemetryEnabled = isAllTelemetryEnabled;
-      if (m_isAllTelemetryEnabled) {
-        LiveWindow.enableAllTelemetry();
-      } else {
-        LiveWindow.disableAllTelemetry();
-      }
+      restoreTelemetrySetting();
+    }
+  }
+
+  /** Applies the dashboard's telemetry setting, unless the loop governor has shed verbose telemetry. */
+  static void restoreTelemetrySetting() {
+    if (m_isAllTelemetryEnabled && LoopGovernor.isEnabled(LoopGovernor.Work.VERBOSE_TELEMETRY)) {
+      LiveWindow.enableAllTelemetry();
+    } else {
+      LiveWindow.disableAllTelemetry();
     }
   }
 
@@ -41,6 +47,32 @@ public final class Telemetry {
     SmartDashboard.putNumber("Timing/MatchTime", Math.floor(Timer.getMatchTime()));
   }
 
+  /** Publishes the latest health check of a swerve module under "Health/<module>". */
+  public static void putModuleHealth(String module, String state, String reason, int canErrors, int resets,
+      int steeringResyncs, double current, double temperature, double steeringDivergenceDegrees) {
+    String prefix = "Health/" + module + "/";
+    SmartDashboard.putString(prefix + "State", state);
+    SmartDashboard.putString(prefix + "Fault", reason);
+    SmartDashboard.putNumber(prefix + "CANErrors", canErrors);
+    SmartDashboard.putNumber(prefix + "Resets", resets);
+    SmartDashboard.putNumber(prefix + "SteeringResyncs", steeringResyncs);
+    SmartDashboard.putNumber(prefix + "DriveCurrent", current);
+    SmartDashboard.putNumber(prefix + "Temperature", temperature);
+    SmartDashboard.putNumber(prefix + "SteeringDivergence", steeringDivergenceDegrees);
+  }
+
+  /** Publishes the garbage collection totals under "JVM/". */
+  public static void putGc(long collections, double lastPauseMs, double maxPauseMs, double totalPauseMs,
+      double heapUsedMB, double allocationRateMBps, long overrunsDuringGc) {
+    SmartDashboard.putNumber("JVM/GCCount", collections);
+    SmartDashboard.putNumber("JVM/LastPauseMs", lastPauseMs);
+    SmartDashboard.putNumber("JVM/MaxPauseMs", maxPauseMs);
+    SmartDashboard.putNumber("JVM/TotalPauseMs", totalPauseMs);
+    SmartDashboard.putNumber("JVM/HeapUsedMB", heapUsedMB);
+    SmartDashboard.putNumber("JVM/AllocationRateMBps", allocationRateMBps);
+    SmartDashboard.putNumber("JVM/OverrunsDuringGC", overrunsDuringGc);
+  }
+
   /** This periodic function supports adding FPGA timestamps to entries when using the NetworkTables v3 protocol. */
   private static void updateFPGATimestamp() {
     SmartDashboard.putNumber("Timing/FPGATimestamp", Timer.getFPGATimestamp());
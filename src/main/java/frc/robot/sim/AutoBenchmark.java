@@ -0,0 +1,246 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+
+import frc.robot.Constants;
+import frc.robot.commands.auto.DriveToDistance;
+import frc.robot.commands.auto.TurnToAngle;
+import frc.robot.subsystems.Swerve;
+
+/**
+ * Scores the autonomous commands over many randomized start poses and sensor
+ * noise seeds, stepping simulated time as fast as the CPU allows.
+ *
+ * <p>The HAL and the command scheduler are process-wide singletons, so each
+ * worker is its own JVM with its own drivetrain and scheduler. The parent
+ * process starts one worker per CPU core, hands each a share of the trials, and
+ * collects their results. Every trial is seeded from the base seed and its
+ * index, so a run is repeatable whatever the number of workers.
+ *
+ * <p>Usage: {@code AutoBenchmark [trials per routine] [seed]}, or
+ * {@code ./gradlew autoBenchmark --args="500 1"}.
+ */
+public final class AutoBenchmark {
+  private static final String kResultPrefix = "RESULT ";
+
+  /** An autonomous command to score, with where it should leave the robot. */
+  private static final class Routine {
+    final String name;
+    final Function<Swerve, Command> factory;
+    final Transform2d goal;
+
+    Routine(String name, Function<Swerve, Command> factory, Transform2d goal) {
+      this.name = name;
+      this.factory = factory;
+      this.goal = goal;
+    }
+  }
+
+  private static final Routine[] kRoutines = {
+    new Routine("DriveToDistance 2m", swerve -> new DriveToDistance(2, swerve),
+        new Transform2d(new Translation2d(2, 0), new Rotation2d())),
+    new Routine("DriveToDistance -1m", swerve -> new DriveToDistance(-1, swerve),
+        new Transform2d(new Translation2d(-1, 0), new Rotation2d())),
+    new Routine("TurnToAngle 90", swerve -> new TurnToAngle(90, swerve),
+        new Transform2d(new Translation2d(), Rotation2d.fromDegrees(90))),
+    new Routine("TurnToAngle -150", swerve -> new TurnToAngle(-150, swerve),
+        new Transform2d(new Translation2d(), Rotation2d.fromDegrees(-150))),
+  };
+
+  private AutoBenchmark() {}
+
+  public static void main(String... args) throws Exception {
+    if (args.length > 0 && args[0].equals("--worker")) {
+      runWorker(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+          Long.parseLong(args[4]));
+      System.exit(0);
+    }
+
+    int trials = args.length > 0 ? Integer.parseInt(args[0]) : Constants.Sim.kDefaultTrials;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+    int workers = Math.min(Runtime.getRuntime().availableProcessors(), trials);
+
+    long start = System.nanoTime();
+    Map<String, List<double[]>> results = runWorkers(workers, trials, seed);
+    double elapsed = (System.nanoTime() - start) * 1e-9;
+
+    System.out.printf(Locale.ROOT, "%d trials per routine on %d workers in %.1f s%n", trials, workers, elapsed);
+    for (Map.Entry<String, List<double[]>> entry : results.entrySet()) {
+      report(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /** Starts the worker JVMs and gathers their results by routine. */
+  private static Map<String, List<double[]>> runWorkers(int workers, int trials, long seed)
+      throws IOException, InterruptedException {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    List<Process> processes = new ArrayList<>();
+    for (int i = 0; i < workers; i++) {
+      List<String> command = new ArrayList<>(Arrays.asList(
+          java, "-cp", System.getProperty("java.class.path")));
+      String libraryPath = System.getProperty("java.library.path");
+      if (libraryPath != null) {
+        command.add("-Djava.library.path=" + libraryPath);
+      }
+      command.addAll(Arrays.asList(AutoBenchmark.class.getName(), "--worker",
+          Integer.toString(i), Integer.toString(workers), Integer.toString(trials), Long.toString(seed)));
+      processes.add(new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+    }
+
+    Map<String, List<double[]>> results = new LinkedHashMap<>();
+    for (Routine routine : kRoutines) {
+      results.put(routine.name, new ArrayList<>());
+    }
+    // Results are small, so reading the workers one after another does not hold them up
+    for (Process process : processes) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (!line.startsWith(kResultPrefix)) {
+            continue;
+          }
+          String[] fields = line.substring(kResultPrefix.length()).split("\t");
+          double[] values = new double[fields.length - 1];
+          for (int j = 1; j < fields.length; j++) {
+            values[j - 1] = Double.parseDouble(fields[j]);
+          }
+          results.get(fields[0]).add(values);
+        }
+      }
+      if (process.waitFor() != 0) {
+        throw new IllegalStateException("Benchmark worker exited with " + process.exitValue());
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Runs every trial whose index falls to this worker and prints one result line per trial:
+   * completed, time, position error, heading error, and odometry error against the true pose.
+   */
+  private static void runWorker(int worker, int workers, int trials, long seed) {
+    HAL.initialize(500, 0);
+    SimHooks.pauseTiming();
+    DriverStationSim.setAutonomous(true);
+    DriverStationSim.setEnabled(true);
+    DriverStationSim.notifyNewData();
+    DriverStation.refreshData();
+
+    SimDrivetrain drivetrain = new SimDrivetrain();
+    Swerve swerve = drivetrain.getSwerve();
+    CommandScheduler scheduler = CommandScheduler.getInstance();
+    double dt = Constants.Sim.kLoopPeriodSeconds;
+
+    for (int r = 0; r < kRoutines.length; r++) {
+      Routine routine = kRoutines[r];
+      for (int trial = worker; trial < trials; trial += workers) {
+        long trialSeed = seed * 1_000_003L + r * 100_003L + trial;
+        Random random = new Random(trialSeed);
+        double margin = Constants.Sim.kStartMargin;
+        Pose2d start = new Pose2d(
+            margin + random.nextDouble() * (Constants.Field.kLength - 2 * margin),
+            margin + random.nextDouble() * (Constants.Field.kWidth - 2 * margin),
+            Rotation2d.fromDegrees(random.nextDouble() * 360 - 180));
+
+        drivetrain.reset(start, random.nextLong());
+        Command command = routine.factory.apply(swerve);
+        command.schedule();
+
+        int steps = 0;
+        int maxSteps = (int) Math.ceil(Constants.Sim.kTrialTimeoutSeconds / dt);
+        while (command.isScheduled() && steps < maxSteps) {
+          step(scheduler, drivetrain, dt);
+          steps++;
+        }
+        boolean completed = !command.isScheduled();
+        command.cancel();
+
+        Pose2d truth = drivetrain.getTruePose();
+        Pose2d goal = start.transformBy(routine.goal);
+        System.out.printf(Locale.ROOT, "%s%s\t%d\t%.4f\t%.5f\t%.4f\t%.5f%n", kResultPrefix, routine.name,
+            completed ? 1 : 0,
+            steps * dt,
+            truth.getTranslation().getDistance(goal.getTranslation()),
+            Math.abs(truth.getRotation().minus(goal.getRotation()).getDegrees()),
+            swerve.getPose().getTranslation().getDistance(truth.getTranslation()));
+
+        // Let the drive slew limiters and modules come to rest before the next trial
+        for (int i = 0; i < (int) Math.ceil(Constants.Sim.kSettleSeconds / dt); i++) {
+          swerve.drive(0, 0, 0, false);
+          step(scheduler, drivetrain, dt);
+        }
+      }
+    }
+  }
+
+  private static void step(CommandScheduler scheduler, SimDrivetrain drivetrain, double dt) {
+    scheduler.run();
+    drivetrain.step(dt);
+    SimHooks.stepTiming(dt);
+  }
+
+  private static void report(String name, List<double[]> trials) {
+    int completed = 0;
+    double[] times = new double[trials.size()];
+    double[] positionErrors = new double[trials.size()];
+    double[] headingErrors = new double[trials.size()];
+    double[] odometryErrors = new double[trials.size()];
+    for (int i = 0; i < trials.size(); i++) {
+      double[] trial = trials.get(i);
+      completed += (int) trial[0];
+      times[i] = trial[1];
+      positionErrors[i] = trial[2];
+      headingErrors[i] = trial[3];
+      odometryErrors[i] = trial[4];
+    }
+
+    System.out.printf(Locale.ROOT, "%n%s: %d/%d finished%n", name, completed, trials.size());
+    System.out.printf(Locale.ROOT, "  %-22s %9s %9s %9s %9s%n", "", "mean", "p50", "p95", "max");
+    printStats("time (s)", times);
+    printStats("position error (m)", positionErrors);
+    printStats("heading error (deg)", headingErrors);
+    printStats("odometry error (m)", odometryErrors);
+  }
+
+  private static void printStats(String label, double[] values) {
+    if (values.length == 0) {
+      return;
+    }
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    double mean = Arrays.stream(sorted).average().orElse(0);
+    System.out.printf(Locale.ROOT, "  %-22s %9.3f %9.3f %9.3f %9.3f%n", label,
+        mean, percentile(sorted, 0.5), percentile(sorted, 0.95), sorted[sorted.length - 1]);
+  }
+
+  private static double percentile(double[] sorted, double fraction) {
+    return sorted[(int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length))];
+  }
+}
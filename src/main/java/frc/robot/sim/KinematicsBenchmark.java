@@ -0,0 +1,97 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+import frc.robot.Constants;
+import frc.robot.lib.FourModuleKinematics;
+
+/**
+ * Times {@link FourModuleKinematics} against WPILib's generic solver on the
+ * robot's module layout.
+ *
+ * <p>Both solvers get the same random chassis speeds, module states and module
+ * deltas, and each is timed after a warm-up so the JIT has compiled both. Every
+ * result is folded into a checksum that is printed, so the JIT cannot drop the
+ * calls. That the two give the same answers is checked by
+ * FourModuleKinematicsTest.
+ *
+ * <p>Usage: {@code ./gradlew kinematicsBenchmark}.
+ */
+public final class KinematicsBenchmark {
+  private static final int kSamples = 10000;
+  private static final int kRounds = 20;
+
+  private static double m_checksum = 0;
+
+  private KinematicsBenchmark() {}
+
+  public static void main(String... args) {
+    SwerveDriveKinematics generic = new SwerveDriveKinematics(Constants.Swerve.kModuleTranslations);
+    FourModuleKinematics fast = new FourModuleKinematics(Constants.Swerve.kModuleTranslations);
+
+    Random random = new Random(1);
+    ChassisSpeeds[] speeds = new ChassisSpeeds[kSamples];
+    SwerveModuleState[][] states = new SwerveModuleState[kSamples][4];
+    SwerveModulePosition[][] deltas = new SwerveModulePosition[kSamples][4];
+    for (int n = 0; n < kSamples; n++) {
+      // Every so often a stop, which keeps the last module angles
+      speeds[n] = n % 100 == 0
+          ? new ChassisSpeeds()
+          : new ChassisSpeeds(random.nextGaussian() * 2, random.nextGaussian() * 2, random.nextGaussian() * 3);
+      for (int i = 0; i < 4; i++) {
+        Rotation2d angle = Rotation2d.fromRadians((random.nextDouble() * 2 - 1) * Math.PI);
+        states[n][i] = new SwerveModuleState(random.nextGaussian() * 2, angle);
+        deltas[n][i] = new SwerveModulePosition(random.nextGaussian() * 0.05, angle);
+      }
+    }
+
+    System.out.println("Time per call over " + kSamples + " samples, best of " + kRounds + " rounds:");
+    System.out.println(String.format(Locale.US, "  %-22s %11s %11s", "", "generic", "four-module"));
+    report("toSwerveModuleStates",
+        time(speeds, s -> generic.toSwerveModuleStates(s)[3].speedMetersPerSecond),
+        time(speeds, s -> fast.toSwerveModuleStates(s)[3].speedMetersPerSecond));
+    report("toChassisSpeeds",
+        time(states, s -> generic.toChassisSpeeds(s).omegaRadiansPerSecond),
+        time(states, s -> fast.toChassisSpeeds(s).omegaRadiansPerSecond));
+    report("toTwist2d",
+        time(deltas, d -> generic.toTwist2d(d).dtheta),
+        time(deltas, d -> fast.toTwist2d(d).dtheta));
+    System.out.println(String.format(Locale.US, "Checksum %.6e", m_checksum));
+  }
+
+  /** @return the best time for one call over the rounds, in nanoseconds, after as many rounds of warm-up */
+  private static <T> double time(T[] inputs, ToDoubleFunction<T> call) {
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < 2 * kRounds; round++) {
+      double sum = 0;
+      long start = System.nanoTime();
+      for (T input : inputs) {
+        sum += call.applyAsDouble(input);
+      }
+      long elapsed = System.nanoTime() - start;
+      m_checksum += sum;
+      if (round >= kRounds) {
+        best = Math.min(best, elapsed);
+      }
+    }
+    return (double) best / inputs.length;
+  }
+
+  private static void report(String name, double genericNanos, double fastNanos) {
+    System.out.println(String.format(Locale.US, "  %-22s %8.0f ns %8.0f ns  (%.1fx)",
+        name, genericNanos, fastNanos, genericNanos / fastNanos));
+  }
+}
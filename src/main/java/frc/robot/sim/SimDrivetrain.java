@@ -0,0 +1,82 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.Random;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+import frc.robot.Constants;
+import frc.robot.lib.SwerveModule;
+import frc.robot.subsystems.Swerve;
+
+/**
+ * The real {@link Swerve} subsystem running on simulated modules and gyro, with
+ * the robot's true pose tracked alongside so odometry and commands can be scored
+ * against it.
+ */
+public class SimDrivetrain {
+  private final SimModuleIO[] m_moduleIO = new SimModuleIO[4];
+  private final SimGyro m_gyro = new SimGyro();
+  private final Swerve m_swerve;
+
+  //// Module i sits at kModuleLocations[i], the same place odometry puts it
+  private final SwerveDriveKinematics m_physicalKinematics;
+  private final SwerveModuleState[] m_trueStates = new SwerveModuleState[4];
+
+  private Pose2d m_truePose = new Pose2d();
+
+  public SimDrivetrain() {
+    SwerveModule[] modules = new SwerveModule[4];
+    for (int i = 0; i < 4; i++) {
+      m_moduleIO[i] = new SimModuleIO();
+      modules[i] = new SwerveModule(m_moduleIO[i], 0);
+    }
+    m_physicalKinematics = new SwerveDriveKinematics(Constants.Swerve.kModuleLocations);
+    m_swerve = new Swerve(modules[0], modules[1], modules[2], modules[3], m_gyro);
+  }
+
+  public Swerve getSwerve() {
+    return m_swerve;
+  }
+
+  /** @return where the robot really is */
+  public Pose2d getTruePose() {
+    return m_truePose;
+  }
+
+  /**
+   * Starts a new trial: new sensor errors from the seed, the drivetrain at rest,
+   * and both the true pose and odometry at the start pose.
+   */
+  public void reset(Pose2d startPose, long seed) {
+    Random random = new Random(seed);
+    for (SimModuleIO io : m_moduleIO) {
+      io.reset(random);
+    }
+    m_gyro.reset(random);
+    m_swerve.resetEncoders();
+    m_swerve.setToCurrentPosition();
+    m_swerve.resetPose(startPose);
+    m_truePose = startPose;
+  }
+
+  /** Advances the physics by one time step, after the scheduler has run. */
+  public void step(double dt) {
+    for (int i = 0; i < 4; i++) {
+      m_moduleIO[i].step(dt);
+      m_trueStates[i] = m_moduleIO[i].getTrueState();
+    }
+    ChassisSpeeds speeds = m_physicalKinematics.toChassisSpeeds(m_trueStates);
+    m_truePose = m_truePose.exp(new Twist2d(
+        speeds.vxMetersPerSecond * dt, speeds.vyMetersPerSecond * dt, speeds.omegaRadiansPerSecond * dt));
+    m_gyro.step(speeds.omegaRadiansPerSecond, dt);
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.Random;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.util.sendable.SendableBuilder;
+
+import frc.robot.Constants;
+import frc.robot.lib.DriveGyro;
+
+/**
+ * A simulated gyro that integrates the true turn rate plus a constant bias drawn
+ * from the trial's seed. The robot is always level.
+ */
+public class SimGyro implements DriveGyro {
+  // Clockwise positive, like the NavX
+  private double m_angle = 0;
+  private double m_rate = 0;
+  private double m_bias = 0;
+
+  /** Zeroes the gyro and draws a new bias. */
+  public void reset(Random random) {
+    m_bias = random.nextGaussian() * Constants.Sim.kGyroDriftStdDev;
+    reset();
+  }
+
+  /**
+   * Advances the gyro by one time step.
+   *
+   * @param omega the true turn rate, in radians per second counter-clockwise
+   */
+  public void step(double omega, double dt) {
+    m_rate = -Math.toDegrees(omega) + m_bias;
+    m_angle += m_rate * dt;
+  }
+
+  @Override
+  public double getAngle() {
+    return m_angle;
+  }
+
+  @Override
+  public double getRate() {
+    return m_rate;
+  }
+
+  @Override
+  public float getYaw() {
+    return (float) MathUtil.inputModulus(-m_angle, -180, 180);
+  }
+
+  @Override
+  public float getPitch() {
+    return 0;
+  }
+
+  @Override
+  public float getRoll() {
+    return 0;
+  }
+
+  @Override
+  public Rotation2d getRotation2d() {
+    return Rotation2d.fromDegrees(-m_angle);
+  }
+
+  @Override
+  public double getYawRateRadians() {
+    return -Math.toRadians(m_rate);
+  }
+
+  @Override
+  public void reset() {
+    m_angle = 0;
+    m_rate = 0;
+  }
+
+  @Override
+  public void initSendable(SendableBuilder builder) {
+    builder.setSmartDashboardType("Gyro");
+    builder.addDoubleProperty("Value", this::getAngle, null);
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.sim;
+
+import java.util.Random;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+import frc.robot.Constants;
+import frc.robot.lib.SwerveModuleIO;
+
+/**
+ * A simulated swerve module. The wheel speed follows its setpoint with a
+ * first-order lag, the steering turns the short way to its setpoint with a lag
+ * and a rate cap, and the sensors carry a wheel-size error, velocity noise and
+ * an absolute encoder offset drawn from the trial's seed.
+ */
+public class SimModuleIO implements SwerveModuleIO {
+  // True state
+  private double m_velocity = 0;
+  private double m_steeringAngle = 0;
+  private double m_steeringVelocity = 0;
+
+  // Setpoints, in the steering encoder's frame
+  private double m_targetVelocity = 0;
+  private double m_targetAngle = 0;
+  private boolean m_stopped = true;
+
+  // Sensors
+  private double m_drivingPosition = 0;
+  private double m_steeringEncoderOffset = 0;
+  private double m_wheelScale = 1;
+  private double m_absoluteOffsetDegrees = 0;
+  private Random m_random = new Random(0);
+
+  /**
+   * Puts the module at rest facing forward with new sensor errors.
+   *
+   * @param random the trial's noise source
+   */
+  public void reset(Random random) {
+    m_random = random;
+    m_wheelScale = 1 + random.nextGaussian() * Constants.Sim.kWheelScaleStdDev;
+    m_absoluteOffsetDegrees = random.nextGaussian() * Constants.Sim.kAbsoluteEncoderStdDev;
+    m_velocity = 0;
+    m_steeringAngle = 0;
+    m_steeringVelocity = 0;
+    m_targetVelocity = 0;
+    m_stopped = true;
+  }
+
+  /** Advances the module by one time step. */
+  public void step(double dt) {
+    double target = m_stopped ? 0 : m_targetVelocity;
+    m_velocity += (target - m_velocity) * (1 - Math.exp(-dt / Constants.Sim.kDrivingTimeConstant));
+    m_drivingPosition += m_velocity * m_wheelScale * dt;
+
+    double lastAngle = m_steeringAngle;
+    if (!m_stopped) {
+      double error = MathUtil.angleModulus(m_targetAngle - m_steeringEncoderOffset - m_steeringAngle);
+      double maxStep = Constants.Sim.kMaxSteeringRate * dt;
+      m_steeringAngle += MathUtil.clamp(
+          error * (1 - Math.exp(-dt / Constants.Sim.kSteeringTimeConstant)), -maxStep, maxStep);
+    }
+    m_steeringVelocity = (m_steeringAngle - lastAngle) / dt;
+  }
+
+  /** @return what the wheel is really doing, in the chassis frame */
+  public SwerveModuleState getTrueState() {
+    return new SwerveModuleState(m_velocity, new Rotation2d(m_steeringAngle));
+  }
+
+  @Override
+  public double getDrivingPosition() {
+    return m_drivingPosition;
+  }
+
+  @Override
+  public double getDrivingVelocity() {
+    return m_velocity * m_wheelScale + m_random.nextGaussian() * Constants.Sim.kDrivingVelocityStdDev;
+  }
+
+  @Override
+  public double getSteeringPosition() {
+    return m_steeringAngle + m_steeringEncoderOffset;
+  }
+
+  @Override
+  public double getSteeringVelocity() {
+    return m_steeringVelocity;
+  }
+
+  @Override
+  public double getAbsoluteSteeringDegrees() {
+    double degrees = (Math.toDegrees(m_steeringAngle) + m_absoluteOffsetDegrees) % 360;
+    return degrees < 0 ? degrees + 360 : degrees;
+  }
+
+  @Override
+  public void setDrivingPosition(double meters) {
+    m_drivingPosition = meters;
+  }
+
+  @Override
+  public void setSteeringPosition(double radians) {
+    m_steeringEncoderOffset = radians - m_steeringAngle;
+  }
+
+  @Override
+  public void setReferences(double drivingVelocity, double steeringAngle, double steeringFeedforwardVolts) {
+    ////the simulated steering tracks its target directly, so the feedforward is not needed
+    m_targetVelocity = drivingVelocity;
+    m_targetAngle = steeringAngle;
+    m_stopped = false;
+  }
+
+  @Override
+  public void stop() {
+    m_stopped = true;
+  }
+
+  @Override
+  public double getDrivingCurrent() {
+    return 0;
+  }
+
+  @Override
+  public double getTurningCurrent() {
+    return 0;
+  }
+
+  @Override
+  public double getDrivingSupplyCurrent() {
+    return 0;
+  }
+
+  @Override
+  public double getTurningSupplyCurrent() {
+    return 0;
+  }
+
+  @Override
+  public double getMotorTemperature() {
+    return 25;
+  }
+
+  @Override
+  public boolean hasCANError() {
+    return false;
+  }
+
+  @Override
+  public boolean checkForReset() {
+    return false;
+  }
+
+  @Override
+  public void setCurrentLimits(int drivingAmps, int turningAmps) {}
+}
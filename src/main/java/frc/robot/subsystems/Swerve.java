@@ -7,98 +7,249 @@ package frc.robot.subsystems;
 
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 import edu.wpi.first.apriltag.AprilTagFieldLayout;
 import edu.wpi.first.apriltag.AprilTagFields;
-import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.filter.SlewRateLimiter;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.util.sendable.SendableBuilder;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Threads;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.Field2d;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 
 import frc.robot.Constants;
+import frc.robot.Robot;
+import frc.robot.lib.DriveGyro;
+import frc.robot.lib.DrivePoseEstimator;
+import frc.robot.lib.FourModuleKinematics;
+import frc.robot.lib.LoopGovernor;
+import frc.robot.lib.LoopGovernor.Work;
+import frc.robot.lib.ModuleHealthMonitor;
 import frc.robot.lib.NavX;
+import frc.robot.lib.PowerBudgetManager;
+import frc.robot.lib.SlipDetector;
+import frc.robot.lib.TaskScheduler.Priority;
 // import frc.robot.lib.PhotonCameraWrapper;
 import frc.robot.lib.SwerveModule;
 
 public class Swerve extends SubsystemBase {
-  // Create SwerveModules
-  private final SwerveModule m_frontLeft = new SwerveModule(
-      Constants.Swerve.kFrontLeftDrivingCanId,
-      Constants.Swerve.kFrontLeftTurningCanId,
-      Constants.Swerve.kFrontLeftCanCoderId,
-      Constants.Swerve.kFrontLeftChassisAngularOffset);
-
-  private final SwerveModule m_frontRight = new SwerveModule(
-      Constants.Swerve.kFrontRightDrivingCanId,
-      Constants.Swerve.kFrontRightTurningCanId,
-      Constants.Swerve.kFrontRightCanCoderId, 
-      Constants.Swerve.kFrontRightChassisAngularOffset);
-
-  private final SwerveModule m_rearLeft = new SwerveModule(
-      Constants.Swerve.kBackLeftDrivingCanId,
-      Constants.Swerve.kBackLeftTurningCanId,
-      Constants.Swerve.kBackLeftCanCoderId,
-      Constants.Swerve.kBackLeftChassisAngularOffset);
-
-  private final SwerveModule m_rearRight = new SwerveModule(
-      Constants.Swerve.kBackRightDrivingCanId,
-      Constants.Swerve.kBackRightTurningCanId,
-      Constants.Swerve.kBackRightCanCoderId, 
-      Constants.Swerve.kBackRightChassisAngularOffset);
+  private final SwerveModule m_frontLeft;
+  private final SwerveModule m_frontRight;
+  private final SwerveModule m_rearLeft;
+  private final SwerveModule m_rearRight;
+
+  // Modules in odometry order, matching Constants.Swerve.kModuleLocations
+  private final SwerveModule[] m_modules;
+  private static final int kAllModules = (1 << 4) - 1;
+
+  private final ModuleHealthMonitor m_health;
+
+  private final PowerBudgetManager m_powerBudget;
+
+  private final SlipDetector m_slipDetector = new SlipDetector(Constants.Swerve.kModuleLocations);
+  //// odometry-order kinematics, where each module really sits given the drive state mapping
+  private final SwerveDriveKinematics m_odometryKinematics = new FourModuleKinematics(Constants.Swerve.kModuleLocations);
+  //// drive-order kinematics for the output path; the solver remembers the last module angles, so each
+  //// drivetrain keeps its own, used only on the thread running the output path
+  private final SwerveDriveKinematics m_driveKinematics = new FourModuleKinematics(Constants.Swerve.kModuleTranslations);
+  private final SwerveModuleState[] m_measuredStates = {
+    new SwerveModuleState(), new SwerveModuleState(), new SwerveModuleState(), new SwerveModuleState()};
+
+  //// kinematics over only the healthy modules, built on first use and indexed by the healthy mask
+  private final SwerveDriveKinematics[] m_subsetKinematics = new SwerveDriveKinematics[kAllModules + 1];
+
+  //// positions last handed to the pose estimator, used to fill in for failed modules
+  private final SwerveModulePosition[] m_lastPositions = new SwerveModulePosition[4];
 
   // The gyro sensor
-  private final NavX m_gyro = new NavX();
+  private final DriveGyro m_gyro;
 
   // public PhotonCameraWrapper m_photonCamera;
 
   //Functions the same as SwerveDriveOdometry
-  private final SwerveDrivePoseEstimator m_poseEstimator = 
-    new SwerveDrivePoseEstimator(
-      Constants.Swerve.kDriveKinematics, 
-      Rotation2d.fromDegrees(m_gyro.getAngle()), 
-      new SwerveModulePosition[] {
-        m_frontLeft.getPosition(),
-        m_frontRight.getPosition(),
-        m_rearLeft.getPosition(),
-        m_rearRight.getPosition()}, 
-      new Pose2d());
+  private final DrivePoseEstimator m_poseEstimator;
 
   private final Field2d m_fieldSim = new Field2d();
   
-  //Default Speed
-  public static final double output = 1;
+  /** Driver speed modes. Each sets its own speed scales and acceleration limits. */
+  public enum DriveMode {
+    SLOW(Constants.Swerve.kSlowTranslationScale, Constants.Swerve.kSlowRotationScale,
+        Constants.Swerve.kSlowAccelScale),
+    MEDIUM(Constants.Swerve.kMediumTranslationScale, Constants.Swerve.kMediumRotationScale,
+        Constants.Swerve.kMediumAccelScale),
+    FAST(1, 1, 1);
+
+    public final double translationScale;
+    public final double rotationScale;
+    public final double accelScale;
+
+    DriveMode(double translationScale, double rotationScale, double accelScale) {
+      this.translationScale = translationScale;
+      this.rotationScale = rotationScale;
+      this.accelScale = accelScale;
+    }
+  }
 
-  public static double m_output = output;
+  private volatile DriveMode m_driveMode = DriveMode.FAST;
+  //// the scales in use, which ramp toward the selected mode's scales
+  private double m_translationScale = 1;
+  private double m_rotationScale = 1;
+  private double m_lastModeUpdate = Double.NaN;
+
+  //limits the acceleration of the x, y, and rotational speeds, rebuilt by the output path when the drive mode changes
+  private volatile boolean m_limitersStale = false;
+  private SlewRateLimiter xLimiter = new SlewRateLimiter(Constants.Swerve.kMaxAccel);
+  private SlewRateLimiter yLimiter = new SlewRateLimiter(Constants.Swerve.kMaxAccel);
+  private SlewRateLimiter rotLimiter = new SlewRateLimiter(Constants.Swerve.kMaxAngularAccel);
+  //// last limited speeds, so new limiters pick up where the old ones left off
+  private double m_lastXSpeed = 0;
+  private double m_lastYSpeed = 0;
+  private double m_lastRot = 0;
 
-  //limits the acceleration of the x, y, and rotational speeds
-  public SlewRateLimiter xLimiter = new SlewRateLimiter(Constants.Swerve.kMaxAccel);
-  public SlewRateLimiter yLimiter = new SlewRateLimiter(Constants.Swerve.kMaxAccel);
-  public SlewRateLimiter rotLimiter = new SlewRateLimiter(Constants.Swerve.kMaxAngularAccel);
+  /**
+   * The latest drive request, handed from the commands to the control loop.
+   * Either chassis speeds or, when states is not null, module states in
+   * kinematics order. Requests are immutable, so swapping the reference is the
+   * whole handoff.
+   */
+  private static final class DriveRequest {
+    final double xSpeed;
+    final double ySpeed;
+    final double rot;
+    final boolean fieldRelative;
+    final SwerveModuleState[] states;
+    final double time;
+
+    DriveRequest(double xSpeed, double ySpeed, double rot, boolean fieldRelative, SwerveModuleState[] states) {
+      this.xSpeed = xSpeed;
+      this.ySpeed = ySpeed;
+      this.rot = rot;
+      this.fieldRelative = fieldRelative;
+      this.states = states;
+      this.time = Timer.getFPGATimestamp();
+    }
+  }
+
+  //// optional high-rate output loop; when it runs, drive() and friends only publish a request
+  private final Notifier m_controlLoop = new Notifier(this::runControlLoop);
+  private final AtomicReference<DriveRequest> m_request =
+      new AtomicReference<>(new DriveRequest(0, 0, 0, false, null));
+  private final SwerveModuleState[] m_loopStates = {
+    new SwerveModuleState(), new SwerveModuleState(), new SwerveModuleState(), new SwerveModuleState()};
+  private volatile boolean m_isControlLoopEnabled = false;
 
+  /**
+   * Which modules drive and how much traction control slows them, worked out
+   * on the main thread and handed to the output path the same way as requests,
+   * so the control loop never reads the health monitor or slip detector while
+   * the main thread is updating them.
+   */
+  private static final class OutputLimits {
+    final int healthyMask;
+    final double tractionScale;
+
+    OutputLimits(int healthyMask, double tractionScale) {
+      this.healthyMask = healthyMask;
+      this.tractionScale = tractionScale;
+    }
+  }
+
+  private final AtomicReference<OutputLimits> m_outputLimits =
+      new AtomicReference<>(new OutputLimits(kAllModules, 1));
+  private boolean m_isControlLoopThreadSetUp = false;
+
+  /** Creates the drivetrain on the robot's hardware. */
   public Swerve() {
+    this(
+      // Create SwerveModules
+      new SwerveModule(
+        Constants.Swerve.kFrontLeftDrivingCanId,
+        Constants.Swerve.kFrontLeftTurningCanId,
+        Constants.Swerve.kFrontLeftCanCoderId,
+        Constants.Swerve.kFrontLeftChassisAngularOffset),
+      new SwerveModule(
+        Constants.Swerve.kFrontRightDrivingCanId,
+        Constants.Swerve.kFrontRightTurningCanId,
+        Constants.Swerve.kFrontRightCanCoderId, 
+        Constants.Swerve.kFrontRightChassisAngularOffset),
+      new SwerveModule(
+        Constants.Swerve.kBackLeftDrivingCanId,
+        Constants.Swerve.kBackLeftTurningCanId,
+        Constants.Swerve.kBackLeftCanCoderId,
+        Constants.Swerve.kBackLeftChassisAngularOffset),
+      new SwerveModule(
+        Constants.Swerve.kBackRightDrivingCanId,
+        Constants.Swerve.kBackRightTurningCanId,
+        Constants.Swerve.kBackRightCanCoderId, 
+        Constants.Swerve.kBackRightChassisAngularOffset),
+      new NavX());
+  }
+
+  /**
+   * Creates the drivetrain on the given modules and gyro, e.g. simulated ones.
+   */
+  public Swerve(SwerveModule frontLeft, SwerveModule frontRight, SwerveModule rearLeft, SwerveModule rearRight,
+      DriveGyro gyro) {
+    m_frontLeft = frontLeft;
+    m_frontRight = frontRight;
+    m_rearLeft = rearLeft;
+    m_rearRight = rearRight;
+    m_modules = new SwerveModule[] {m_frontLeft, m_frontRight, m_rearLeft, m_rearRight};
+    m_gyro = gyro;
+
+    m_health = new ModuleHealthMonitor(
+        new String[] {"FrontLeft", "FrontRight", "RearLeft", "RearRight"}, m_modules);
+    m_powerBudget = new PowerBudgetManager(m_modules);
+
+    m_poseEstimator = new DrivePoseEstimator(
+        m_odometryKinematics, 
+        m_gyro.getRotation2d(), 
+        getModulePositions(kAllModules), 
+        new Pose2d());
+
     // m_photonCamera = new PhotonCameraWrapper(
     //   Constants.Vision.kCameraName,
     //   Constants.Vision.kRobotToCamera,
     //   PoseStrategy.CLOSEST_TO_REFERENCE_POSE,
-    //   Constants.Vision.kAprilTagFieldLayout
+    //   FieldLayout.getLayout()
     // );
     
     SmartDashboard.putData("Field", m_fieldSim);
     SmartDashboard.setDefaultNumber("P", Constants.SwerveModule.kDrivingP);
     SmartDashboard.setDefaultNumber("D", Constants.SwerveModule.kDrivingD);
+
+    setControlLoopEnabled(Constants.Swerve.kUseControlLoop);
+
+    //// module health decides which modules drive, so it is never deferred; the power budget
+    //// writes current limits over CAN, which can take a few milliseconds
+    Robot.addCustomPeriodic("ModuleHealth", () -> { m_health.update(); updateOutputLimits(); }, Constants.Health.kUpdatePeriodSeconds, Priority.HIGH);
+    Robot.addCustomPeriodic("PowerBudget", m_powerBudget::update, Constants.Power.kUpdatePeriodSeconds,
+        Priority.NORMAL, Constants.Power.kUpdateBudgetSeconds);
   }
 
   @Override
   public void periodic() {
     updatePose();
+    updateDriveModeScales();
+
+    if (LoopGovernor.isEnabled(Work.FIELD)) {
+      m_fieldSim.setRobotPose(m_poseEstimator.getEstimatedPosition());
+    }
+    if (!LoopGovernor.isEnabled(Work.VERBOSE_TELEMETRY)) {
+      return;
+    }
 
     SmartDashboard.putNumber("FrontLeft DrivingRelativePosition", m_frontLeft.getDrivingRelativePosition());
     SmartDashboard.putNumber("FrontLeft SteeringRelativePosition", m_frontLeft.getSteeringRelativePosition());
@@ -125,14 +276,24 @@ public class Swerve extends SubsystemBase {
    
   //updates the pose periodically
   public void updatePose() {
+    double now = Timer.getFPGATimestamp();
+    int freshMask = 0;
+    for (int i = 0; i < 4; i++) {
+      m_modules[i].sampleOdometry(now);
+      if (!m_modules[i].isOdometryStale(now)) {
+        freshMask |= 1 << i;
+      }
+      m_measuredStates[i] = m_modules[i].getState();
+    }
+    m_slipDetector.update(m_measuredStates, m_gyro.getYawRateRadians());
+    updateOutputLimits();
+
+    //slipping wheels overstate how far they went and stale ones are behind, so they sit
+    //this update out like failed modules
     m_poseEstimator.update(
+      now,
       m_gyro.getRotation2d(), 
-      new SwerveModulePosition[] {
-        m_frontLeft.getPosition(),
-        m_frontRight.getPosition(),
-        m_rearLeft.getPosition(),
-        m_rearRight.getPosition()
-    });
+      getModulePositions(m_health.getHealthyMask() & ~m_slipDetector.getSlipMask() & freshMask));
 
     // Optional<EstimatedRobotPose> cameraResult = m_photonCamera.getEstimatedGlobalPose(m_poseEstimator.getEstimatedPosition());
     // if (leftCameraResult.isPresent()) {
@@ -143,6 +304,67 @@ public class Swerve extends SubsystemBase {
   //   m_fieldSim.setRobotPose(m_poseEstimator.getEstimatedPosition());
     }
 
+  /**
+   * Reads the module positions for odometry. Modules outside the mask are not
+   * trusted, so their motion is rebuilt from the chassis motion measured by the
+   * others instead of letting a frozen or wild module drag the pose.
+   *
+   * @param validMask bit i set when module i can be trusted
+   * @return the positions, in odometry order
+   */
+  private SwerveModulePosition[] getModulePositions(int validMask) {
+    SwerveModulePosition[] positions = new SwerveModulePosition[4];
+    for (int i = 0; i < 4; i++) {
+      positions[i] = m_modules[i].getPosition();
+    }
+
+    if (validMask != kAllModules && Integer.bitCount(validMask) >= 2 && m_lastPositions[0] != null) {
+      SwerveModulePosition[] deltas = new SwerveModulePosition[Integer.bitCount(validMask)];
+      int j = 0;
+      for (int i = 0; i < 4; i++) {
+        if ((validMask & (1 << i)) != 0) {
+          deltas[j++] = new SwerveModulePosition(
+              positions[i].distanceMeters - m_lastPositions[i].distanceMeters, positions[i].angle);
+        }
+      }
+      Twist2d twist = getSubsetKinematics(validMask).toTwist2d(deltas);
+
+      for (int i = 0; i < 4; i++) {
+        if ((validMask & (1 << i)) == 0) {
+          Translation2d location = Constants.Swerve.kModuleLocations[i];
+          double dx = twist.dx - twist.dtheta * location.getY();
+          double dy = twist.dy + twist.dtheta * location.getX();
+          double distance = Math.hypot(dx, dy);
+          positions[i] = new SwerveModulePosition(
+              m_lastPositions[i].distanceMeters + distance,
+              distance > 1e-9 ? new Rotation2d(dx, dy) : m_lastPositions[i].angle);
+        }
+      }
+    }
+
+    System.arraycopy(positions, 0, m_lastPositions, 0, 4);
+    return positions;
+  }
+
+  /**
+   * Returns kinematics built from only the modules in the mask.
+   *
+   * @param mask bit i set for each module i to include, in odometry order
+   */
+  private SwerveDriveKinematics getSubsetKinematics(int mask) {
+    if (m_subsetKinematics[mask] == null) {
+      Translation2d[] locations = new Translation2d[Integer.bitCount(mask)];
+      int j = 0;
+      for (int i = 0; i < 4; i++) {
+        if ((mask & (1 << i)) != 0) {
+          locations[j++] = Constants.Swerve.kModuleLocations[i];
+        }
+      }
+      m_subsetKinematics[mask] = new SwerveDriveKinematics(locations);
+    }
+    return m_subsetKinematics[mask];
+  }
+
    /**
     * Returns the currently-estimated pose of the robot.
     *
@@ -152,39 +374,120 @@ public class Swerve extends SubsystemBase {
      return m_poseEstimator.getEstimatedPosition();
    }
 
-  public NavX getGyro()
+  /**
+   * Returns the measured robot-relative chassis speeds.
+   */
+  public ChassisSpeeds getChassisSpeeds() {
+    return m_odometryKinematics.toChassisSpeeds(m_measuredStates);
+  }
+
+  public DriveGyro getGyro()
   {
     return m_gyro;
   }
 
-  public void slowMode()
-  {
-    m_frontLeft.evilMode();
-    m_frontRight.evilMode();
-    m_rearLeft.evilMode();
-    m_rearRight.evilMode();
+  /**
+   * Selects a drive mode. The speed scales move to the new mode's values over a
+   * short ramp, and the acceleration limits switch over straight away.
+   *
+   * @param mode the mode to drive in
+   */
+  public void setDriveMode(DriveMode mode) {
+    if (mode == m_driveMode) {
+      return;
+    }
+    m_driveMode = mode;
+    //the limiters belong to whichever thread computes the outputs, so it rebuilds them
+    m_limitersStale = true;
+  }
 
-		m_output = 0.2;
+  private void rebuildLimiters() {
+    m_limitersStale = false;
+    DriveMode mode = m_driveMode;
+    double accel = Constants.Swerve.kMaxAccel * mode.accelScale;
+    double angularAccel = Constants.Swerve.kMaxAngularAccel * mode.accelScale;
+    xLimiter = new SlewRateLimiter(accel, -accel, m_lastXSpeed);
+    yLimiter = new SlewRateLimiter(accel, -accel, m_lastYSpeed);
+    rotLimiter = new SlewRateLimiter(angularAccel, -angularAccel, m_lastRot);
   }
 
-  public void mediumMode()
-  {
-    m_frontLeft.evilMode();
-    m_frontRight.evilMode();
-    m_rearLeft.evilMode();
-    m_rearRight.evilMode();
+  /**
+   * Turns the high-rate control loop on or off. While it runs, the drive
+   * methods only publish the latest request, and a Notifier applies slew
+   * limiting, kinematics and module setpoints at
+   * {@link Constants.Swerve#kControlLoopPeriodSeconds}, independent of how long
+   * the rest of the robot loop takes.
+   */
+  public void setControlLoopEnabled(boolean enabled) {
+    if (enabled == m_isControlLoopEnabled) {
+      return;
+    }
+    m_request.set(new DriveRequest(0, 0, 0, false, null));
+    m_isControlLoopEnabled = enabled;
+    if (enabled) {
+      m_controlLoop.startPeriodic(Constants.Swerve.kControlLoopPeriodSeconds);
+    } else {
+      m_controlLoop.stop();
+    }
+  }
 
-		m_output = 0.5;
+  public boolean isControlLoopEnabled() {
+    return m_isControlLoopEnabled;
   }
 
-  public void fastMode()
-  {
-    m_frontLeft.goodMode();
-    m_frontRight.goodMode();
-    m_rearLeft.goodMode();
-    m_rearRight.goodMode();
+  //runs on the Notifier thread: applies the latest request, or stops if the commands have gone quiet
+  private void runControlLoop() {
+    if (!m_isControlLoopThreadSetUp) {
+      m_isControlLoopThreadSetUp = true;
+      Threads.setCurrentThreadPriority(true, Constants.Swerve.kControlLoopThreadPriority);
+    }
 
-		m_output = output;
+    DriveRequest request = m_request.get();
+    if (Timer.getFPGATimestamp() - request.time > Constants.Swerve.kControlLoopRequestTimeout) {
+      applySpeeds(0, 0, 0, false);
+    } else if (request.states != null) {
+      //applyModuleStates scales the states it is given, and the request is reapplied every tick
+      for (int i = 0; i < 4; i++) {
+        m_loopStates[i].speedMetersPerSecond = request.states[i].speedMetersPerSecond;
+        m_loopStates[i].angle = request.states[i].angle;
+      }
+      applyModuleStates(m_loopStates);
+    } else {
+      applySpeeds(request.xSpeed, request.ySpeed, request.rot, request.fieldRelative);
+    }
+  }
+
+  public DriveMode getDriveMode() {
+    return m_driveMode;
+  }
+
+  /** Returns the acceleration drive() lets through on each axis in the current drive mode, in meters per second squared. */
+  public double getMaxAccel() {
+    return Constants.Swerve.kMaxAccel * m_driveMode.accelScale;
+  }
+
+  /** Returns the angular acceleration drive() lets through in the current drive mode, in radians per second squared. */
+  public double getMaxAngularAccel() {
+    return Constants.Swerve.kMaxAngularAccel * m_driveMode.accelScale;
+  }
+
+  /** Returns the fraction of full translation speed the driver should get right now. */
+  public double getTranslationScale() {
+    return m_translationScale;
+  }
+
+  /** Returns the fraction of full rotation speed the driver should get right now. */
+  public double getRotationScale() {
+    return m_rotationScale;
+  }
+
+  //moves the speed scales toward the selected mode so switching modes doesn't jerk the robot
+  private void updateDriveModeScales() {
+    double now = Timer.getFPGATimestamp();
+    double maxStep = Double.isNaN(m_lastModeUpdate) ? 0 : (now - m_lastModeUpdate) * Constants.Swerve.kModeTransitionRate;
+    m_lastModeUpdate = now;
+    m_translationScale += MathUtil.clamp(m_driveMode.translationScale - m_translationScale, -maxStep, maxStep);
+    m_rotationScale += MathUtil.clamp(m_driveMode.rotationScale - m_rotationScale, -maxStep, maxStep);
   }
 
   /**
@@ -194,13 +497,8 @@ public class Swerve extends SubsystemBase {
    */
   public void resetPose(Pose2d pose) {
     m_poseEstimator.resetPosition(
-        Rotation2d.fromDegrees(m_gyro.getAngle()),
-        new SwerveModulePosition[] {
-            m_frontLeft.getPosition(),
-            m_frontRight.getPosition(),
-            m_rearLeft.getPosition(),
-            m_rearRight.getPosition()
-        },
+        m_gyro.getRotation2d(),
+        getModulePositions(kAllModules),
         pose);
 
       m_fieldSim.setRobotPose(m_poseEstimator.getEstimatedPosition());
@@ -216,16 +514,20 @@ public class Swerve extends SubsystemBase {
    *                      field.
    */
   public void drive(double xSpeed, double ySpeed, double rot, boolean fieldRelative) {
+    if (m_isControlLoopEnabled) {
+      m_request.set(new DriveRequest(xSpeed, ySpeed, rot, fieldRelative, null));
+      return;
+    }
+    applySpeeds(xSpeed, ySpeed, rot, fieldRelative);
+  }
+
+  //slew limits, converts to module states and sends them, on whichever thread produces the outputs
+  private void applySpeeds(double xSpeed, double ySpeed, double rot, boolean fieldRelative) {
     // Adjust input based on   speed
     // xSpeed *= Constants.Swerve.kMaxSpeedMetersPerSecond;
     // ySpeed *= Constants.Swerve.kMaxSpeedMetersPerSecond;
     // rot *= Constants.Swerve.kMaxAngularSpeed;
 
-    //multiply by output to change the speed, useful for slow mode or medium slow mode
-    xSpeed *= m_output;
-    ySpeed *= m_output;
-    rot *= m_output;
-
 
     // double deadband = Constants.Swerve.kMaxSpeedMetersPerSecond / 10;
     // xSpeed = deadBand(xSpeed, deadband);
@@ -235,26 +537,59 @@ public class Swerve extends SubsystemBase {
     // rot = deadBand(rot, deadbandRot);
 
     //returns the modified speed if rate of change is above maximum
+    if (m_limitersStale) {
+      rebuildLimiters();
+    }
     xSpeed = xLimiter.calculate(xSpeed);
     ySpeed = yLimiter.calculate(ySpeed);
     rot = rotLimiter.calculate(rot);
+    m_lastXSpeed = xSpeed;
+    m_lastYSpeed = ySpeed;
+    m_lastRot = rot;
 
     //converts your desired chassis speeds into the appropriate speed and angles 
     //for each swerve module with the given kinematics
-    var swerveModuleStates = Constants.Swerve.kDriveKinematics.toSwerveModuleStates(
+    var swerveModuleStates = m_driveKinematics.toSwerveModuleStates(
         fieldRelative
             ? ChassisSpeeds.fromFieldRelativeSpeeds(xSpeed, ySpeed, rot, Rotation2d.fromDegrees(-m_gyro.getAngle()))
             : new ChassisSpeeds(xSpeed, ySpeed, rot));
 
-    //limits the wheel speeds
-    SwerveDriveKinematics.desaturateWheelSpeeds(
-        swerveModuleStates, Constants.Swerve.kMaxSpeedMetersPerSecond);
-    
-    //sets these wheels to the desired speed and angle
-    m_frontLeft.setDesiredState(swerveModuleStates[2]);
-    m_frontRight.setDesiredState(swerveModuleStates[3]);
-    m_rearLeft.setDesiredState(swerveModuleStates[0]);
-    m_rearRight.setDesiredState(swerveModuleStates[1]);
+    //limits the wheel speeds and sets these wheels to the desired speed and angle
+    applyModuleStates(swerveModuleStates);
+  }
+
+  /**
+   * Desaturates and sends module states in kinematics order. When a module has
+   * failed it is stopped and the robot drives on the remaining modules; each
+   * module's state only depends on its own location, so the healthy modules keep
+   * their four-module states and only the desaturation leaves the failed one out.
+   * When a wheel slips, the traction control slows all the modules together, so
+   * the states still describe one rigid-body motion.
+   *
+   * @param states the module states, in kinematics order
+   */
+  private void applyModuleStates(SwerveModuleState[] states) {
+    OutputLimits limits = m_outputLimits.get();
+    int healthy = limits.healthyMask;
+
+    int healthyStates = 0;
+    for (int i = 0; i < 4; i++) {
+      if ((healthy & (1 << i)) != 0) {
+        healthyStates |= 1 << Constants.Swerve.kDriveStateIndex[i];
+      }
+    }
+    FourModuleKinematics.desaturateWheelSpeeds(states, healthyStates, Constants.Swerve.kMaxSpeedMetersPerSecond);
+    double tractionScale = limits.tractionScale;
+
+    for (int i = 0; i < 4; i++) {
+      if ((healthy & (1 << i)) != 0) {
+        SwerveModuleState state = states[Constants.Swerve.kDriveStateIndex[i]];
+        state.speedMetersPerSecond *= tractionScale;
+        m_modules[i].setDesiredState(state);
+      } else {
+        m_modules[i].stop();
+      }
+    }
   }
 
   public double getDistanceMeters()
@@ -282,6 +617,16 @@ public class Swerve extends SubsystemBase {
    * Sets the wheels into an X formation to prevent movement.
    */
   public void setX() {
+    if (m_isControlLoopEnabled) {
+      //the request is in kinematics order, so each angle goes where applyModuleStates will send it to its module
+      SwerveModuleState[] states = new SwerveModuleState[4];
+      double[] angles = {45, -45, -45, 45};
+      for (int i = 0; i < 4; i++) {
+        states[Constants.Swerve.kDriveStateIndex[i]] = new SwerveModuleState(0, Rotation2d.fromDegrees(angles[i]));
+      }
+      m_request.set(new DriveRequest(0, 0, 0, false, states));
+      return;
+    }
     m_frontLeft.setDesiredState(new SwerveModuleState(0, Rotation2d.fromDegrees(45)));
     m_frontRight.setDesiredState(new SwerveModuleState(0, Rotation2d.fromDegrees(-45)));
     m_rearLeft.setDesiredState(new SwerveModuleState(0, Rotation2d.fromDegrees(-45)));
@@ -294,12 +639,15 @@ public class Swerve extends SubsystemBase {
    * @param desiredStates The desired SwerveModule states.
    */
   public void setModuleStates(SwerveModuleState[] desiredStates) {
-    SwerveDriveKinematics.desaturateWheelSpeeds(
-        desiredStates, Constants.Swerve.kMaxSpeedMetersPerSecond);
-    m_frontLeft.setDesiredState(desiredStates[2]);
-    m_frontRight.setDesiredState(desiredStates[3]);
-    m_rearLeft.setDesiredState(desiredStates[0]);
-    m_rearRight.setDesiredState(desiredStates[1]);
+    if (m_isControlLoopEnabled) {
+      SwerveModuleState[] states = new SwerveModuleState[desiredStates.length];
+      for (int i = 0; i < states.length; i++) {
+        states[i] = new SwerveModuleState(desiredStates[i].speedMetersPerSecond, desiredStates[i].angle);
+      }
+      m_request.set(new DriveRequest(0, 0, 0, false, states));
+      return;
+    }
+    applyModuleStates(desiredStates);
   }
 
   /** Resets the drive encoders to currently read a position of 0. */
@@ -308,6 +656,7 @@ public class Swerve extends SubsystemBase {
     m_rearLeft.resetEncoders();
     m_frontRight.resetEncoders();
     m_rearRight.resetEncoders();
+    getModulePositions(kAllModules);
   }
 
   /** Zeroes the heading of the robot. */
@@ -341,6 +690,10 @@ public class Swerve extends SubsystemBase {
   }
 
   public void stopModules() {
+    if (m_isControlLoopEnabled) {
+      m_request.set(new DriveRequest(0, 0, 0, false, null));
+      return;
+    }
     m_frontLeft.setDesiredState(new SwerveModuleState(0, m_frontLeft.getState().angle));
     m_frontRight.setDesiredState(new SwerveModuleState(0, m_frontRight.getState().angle));
     m_rearLeft.setDesiredState(new SwerveModuleState(0, m_rearLeft.getState().angle));
@@ -349,10 +702,34 @@ public class Swerve extends SubsystemBase {
 
   public void setToCurrentPosition()
   {
-    m_frontLeft.getTurningEncoder().setPosition(Math.toRadians(m_frontLeft.getSteeringAbsolutePosition()));
-    m_frontRight.getTurningEncoder().setPosition(Math.toRadians(m_frontRight.getSteeringAbsolutePosition()));
-    m_rearLeft.getTurningEncoder().setPosition(Math.toRadians(m_rearLeft.getSteeringAbsolutePosition()));
-    m_rearRight.getTurningEncoder().setPosition(Math.toRadians(m_rearRight.getSteeringAbsolutePosition()));
+    for (SwerveModule module : m_modules) {
+      module.syncSteeringEncoder();
+    }
+  }
+
+  /**
+   * Returns the health of a module.
+   *
+   * @param module the module index, in odometry order (front left, front right, rear left, rear right)
+   */
+  public ModuleHealthMonitor.State getModuleHealth(int module) {
+    return m_health.getState(module);
+  }
+
+  /** Puts failed modules back in service. They stay out until this is called. */
+  public void resetModuleHealth() {
+    m_health.resetFailures();
+    updateOutputLimits();
+  }
+
+  //publishes the modules to drive and the traction scale for the output path
+  private void updateOutputLimits() {
+    int healthy = m_health.getHealthyMask();
+    if (healthy == kAllModules || Integer.bitCount(healthy) < 2) {
+      // With fewer than two modules left there is nothing to fall back to
+      healthy = kAllModules;
+    }
+    m_outputLimits.set(new OutputLimits(healthy, m_slipDetector.getTractionScale(healthy)));
   }
   // private static ChassisSpeeds fieldRelativeSpeeds(double vxMetersPerSecond,
   // double vyMetersPerSecond,
@@ -0,0 +1,172 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+
+import frc.robot.Constants;
+
+class DrivePoseEstimatorTest {
+  private static final double kDt = 0.02;
+  // The wheels read 4% long, as worn or mis-measured wheels would
+  private static final double kWheelScale = 1.04;
+  private static final double kVisionDelay = 0.1;
+  private static final double[] kVisionStdDevs = {0.05, 0.05, 0.02};
+
+  private final Translation2d[] m_locations = Constants.Swerve.kModuleTranslations;
+  private final SwerveDriveKinematics m_kinematics = new SwerveDriveKinematics(m_locations);
+  private final SwerveModulePosition[] m_positions = new SwerveModulePosition[4];
+  private final double[] m_distances = new double[4];
+
+  // The robot's true pose
+  private double m_x;
+  private double m_y;
+  private double m_theta;
+  private double m_time;
+
+  @BeforeEach
+  void setup() {
+    m_x = 1;
+    m_y = 2;
+    m_theta = 0.5;
+    m_time = 0;
+    for (int i = 0; i < 4; i++) {
+      m_distances[i] = 0;
+      m_positions[i] = new SwerveModulePosition(0, new Rotation2d());
+    }
+  }
+
+  private DrivePoseEstimator createEstimator() {
+    return new DrivePoseEstimator(m_kinematics, new Rotation2d(m_theta), m_positions,
+        new Pose2d(m_x, m_y, new Rotation2d(m_theta)));
+  }
+
+  /** Drives the robot for one step at the given robot-relative speeds, with the wheels reading long. */
+  private void step(double vx, double vy, double omega) {
+    for (int i = 0; i < 4; i++) {
+      double moduleX = vx - omega * m_locations[i].getY();
+      double moduleY = vy + omega * m_locations[i].getX();
+      m_distances[i] += Math.hypot(moduleX, moduleY) * kDt * kWheelScale;
+      m_positions[i] = new SwerveModulePosition(m_distances[i], new Rotation2d(moduleX, moduleY));
+    }
+    double midTheta = m_theta + omega * kDt / 2;
+    m_x += (Math.cos(midTheta) * vx - Math.sin(midTheta) * vy) * kDt;
+    m_y += (Math.sin(midTheta) * vx + Math.cos(midTheta) * vy) * kDt;
+    m_theta += omega * kDt;
+    m_time += kDt;
+  }
+
+  private double error(Pose2d pose) {
+    return Math.hypot(pose.getX() - m_x, pose.getY() - m_y);
+  }
+
+  /** Checks the covariance is symmetric and, by its leading minors, positive-definite. */
+  private static void assertPositiveDefinite(double[] p) {
+    assertEquals(p[1], p[3], 1e-12);
+    assertEquals(p[2], p[6], 1e-12);
+    assertEquals(p[5], p[7], 1e-12);
+    assertTrue(p[0] > 0, "P[0][0] " + p[0]);
+    assertTrue(p[0] * p[4] - p[1] * p[3] > 0, "2x2 minor not positive");
+    double determinant = p[0] * (p[4] * p[8] - p[5] * p[7])
+        - p[1] * (p[3] * p[8] - p[5] * p[6])
+        + p[2] * (p[3] * p[7] - p[4] * p[6]);
+    assertTrue(determinant > 0, "determinant " + determinant);
+  }
+
+  @Test
+  void delayedVisionCorrectsWheelDrift() {
+    DrivePoseEstimator fused = createEstimator();
+    DrivePoseEstimator odometry = createEstimator();
+    Random random = new Random(2881);
+    ArrayDeque<double[]> pending = new ArrayDeque<>();
+
+    for (int n = 0; n < 1500; n++) {
+      step(1.5, 0.3 * Math.sin(m_time), 0.05);
+      fused.update(m_time, new Rotation2d(m_theta), m_positions);
+      odometry.update(m_time, new Rotation2d(m_theta), m_positions);
+
+      // A noisy image every 100 ms, which arrives 100 ms after it was taken
+      if (n % 5 == 0) {
+        pending.add(new double[] {m_time,
+            m_x + random.nextGaussian() * kVisionStdDevs[0],
+            m_y + random.nextGaussian() * kVisionStdDevs[1],
+            m_theta + random.nextGaussian() * kVisionStdDevs[2]});
+      }
+      while (!pending.isEmpty() && pending.peek()[0] <= m_time - kVisionDelay) {
+        double[] image = pending.poll();
+        fused.addVisionMeasurement(new Pose2d(image[1], image[2], new Rotation2d(image[3])), image[0],
+            kVisionStdDevs);
+      }
+    }
+
+    double fusedError = error(fused.getEstimatedPosition());
+    double odometryError = error(odometry.getEstimatedPosition());
+    assertTrue(odometryError > 1, "odometry alone drifted only " + odometryError + " m");
+    assertTrue(fusedError < 0.1, "fused estimate is " + fusedError + " m off");
+    assertEquals(0, MathUtil.angleModulus(fused.getEstimatedPosition().getRotation().getRadians() - m_theta), 0.05);
+  }
+
+  @Test
+  void visionOlderThanHistoryIsIgnored() {
+    DrivePoseEstimator estimator = createEstimator();
+    int steps = (int) Math.ceil(Constants.PoseEstimator.kHistorySeconds / kDt) + 20;
+    for (int n = 0; n < steps; n++) {
+      step(1, 0, 0.1);
+      estimator.update(m_time, new Rotation2d(m_theta), m_positions);
+    }
+    Pose2d before = estimator.getEstimatedPosition();
+    double[] covariance = estimator.getCovariance();
+
+    estimator.addVisionMeasurement(new Pose2d(m_x + 2, m_y - 2, new Rotation2d(m_theta + 1)),
+        m_time - Constants.PoseEstimator.kHistorySeconds - 0.1, kVisionStdDevs);
+
+    Pose2d after = estimator.getEstimatedPosition();
+    assertEquals(before.getX(), after.getX());
+    assertEquals(before.getY(), after.getY());
+    assertEquals(before.getRotation().getRadians(), after.getRotation().getRadians());
+    assertArrayEquals(covariance, estimator.getCovariance());
+  }
+
+  @Test
+  void covarianceStaysPositiveDefiniteThroughDelayedUpdates() {
+    DrivePoseEstimator estimator = createEstimator();
+    Random random = new Random(1);
+    ArrayDeque<double[]> pending = new ArrayDeque<>();
+
+    for (int n = 0; n < 1000; n++) {
+      step(1.2 * Math.cos(m_time), 0.8 * Math.sin(0.7 * m_time), 1.5 * Math.sin(0.3 * m_time));
+      estimator.update(m_time, new Rotation2d(m_theta), m_positions);
+      assertPositiveDefinite(estimator.getCovariance());
+
+      if (n % 3 == 0) {
+        pending.add(new double[] {m_time, m_x, m_y, m_theta});
+      }
+      // Images of mixed age and trust, some far more certain than the odometry
+      while (!pending.isEmpty() && pending.peek()[0] <= m_time - 0.02 * random.nextInt(20)) {
+        double[] image = pending.poll();
+        double stdDev = random.nextBoolean() ? 0.005 : 0.5;
+        estimator.addVisionMeasurement(new Pose2d(image[1], image[2], new Rotation2d(image[3])), image[0],
+            new double[] {stdDev, stdDev, stdDev});
+        assertPositiveDefinite(estimator.getCovariance());
+      }
+    }
+  }
+}
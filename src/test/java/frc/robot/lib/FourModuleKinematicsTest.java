@@ -0,0 +1,156 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+import frc.robot.Constants;
+
+class FourModuleKinematicsTest {
+  private static final double kTolerance = 1e-9;
+  private static final int kSamples = 1000;
+
+  // The robot's layout, and one off center so the normal equations are not diagonal
+  private static final Translation2d[][] kLayouts = {
+    Constants.Swerve.kModuleTranslations,
+    {new Translation2d(0.4, 0.2), new Translation2d(0.3, -0.35), new Translation2d(-0.25, 0.3),
+        new Translation2d(-0.35, -0.2)},
+  };
+
+  private final Random m_random = new Random(2881);
+
+  private ChassisSpeeds randomSpeeds() {
+    return new ChassisSpeeds(m_random.nextGaussian() * 2, m_random.nextGaussian() * 2, m_random.nextGaussian() * 3);
+  }
+
+  private Rotation2d randomAngle() {
+    return Rotation2d.fromRadians((m_random.nextDouble() * 2 - 1) * Math.PI);
+  }
+
+  private static void assertStatesEqual(SwerveModuleState[] expected, SwerveModuleState[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].speedMetersPerSecond, actual[i].speedMetersPerSecond, kTolerance);
+      assertEquals(0, MathUtil.angleModulus(expected[i].angle.getRadians() - actual[i].angle.getRadians()), kTolerance);
+    }
+  }
+
+  @Test
+  void inverseKinematicsMatchGenericSolver() {
+    for (Translation2d[] layout : kLayouts) {
+      SwerveDriveKinematics generic = new SwerveDriveKinematics(layout);
+      FourModuleKinematics fast = new FourModuleKinematics(layout);
+      for (int n = 0; n < kSamples; n++) {
+        ChassisSpeeds speeds = randomSpeeds();
+        assertStatesEqual(generic.toSwerveModuleStates(speeds), fast.toSwerveModuleStates(speeds));
+      }
+    }
+  }
+
+  @Test
+  void forwardKinematicsMatchGenericSolver() {
+    for (Translation2d[] layout : kLayouts) {
+      SwerveDriveKinematics generic = new SwerveDriveKinematics(layout);
+      FourModuleKinematics fast = new FourModuleKinematics(layout);
+      for (int n = 0; n < kSamples; n++) {
+        SwerveModuleState[] states = new SwerveModuleState[4];
+        for (int i = 0; i < 4; i++) {
+          states[i] = new SwerveModuleState(m_random.nextGaussian() * 2, randomAngle());
+        }
+        ChassisSpeeds expected = generic.toChassisSpeeds(states);
+        ChassisSpeeds actual = fast.toChassisSpeeds(states);
+        assertEquals(expected.vxMetersPerSecond, actual.vxMetersPerSecond, kTolerance);
+        assertEquals(expected.vyMetersPerSecond, actual.vyMetersPerSecond, kTolerance);
+        assertEquals(expected.omegaRadiansPerSecond, actual.omegaRadiansPerSecond, kTolerance);
+      }
+    }
+  }
+
+  @Test
+  void twistMatchesGenericSolver() {
+    for (Translation2d[] layout : kLayouts) {
+      SwerveDriveKinematics generic = new SwerveDriveKinematics(layout);
+      FourModuleKinematics fast = new FourModuleKinematics(layout);
+      for (int n = 0; n < kSamples; n++) {
+        SwerveModulePosition[] deltas = new SwerveModulePosition[4];
+        for (int i = 0; i < 4; i++) {
+          deltas[i] = new SwerveModulePosition(m_random.nextGaussian() * 0.05, randomAngle());
+        }
+        Twist2d expected = generic.toTwist2d(deltas);
+        Twist2d actual = fast.toTwist2d(deltas);
+        assertEquals(expected.dx, actual.dx, kTolerance);
+        assertEquals(expected.dy, actual.dy, kTolerance);
+        assertEquals(expected.dtheta, actual.dtheta, kTolerance);
+      }
+    }
+  }
+
+  @Test
+  void stopKeepsLastAngles() {
+    SwerveDriveKinematics generic = new SwerveDriveKinematics(Constants.Swerve.kModuleTranslations);
+    FourModuleKinematics fast = new FourModuleKinematics(Constants.Swerve.kModuleTranslations);
+    ChassisSpeeds speeds = new ChassisSpeeds(1, -0.5, 2);
+    SwerveModuleState[] moving = fast.toSwerveModuleStates(speeds);
+    generic.toSwerveModuleStates(speeds);
+
+    SwerveModuleState[] stopped = fast.toSwerveModuleStates(new ChassisSpeeds());
+    assertStatesEqual(generic.toSwerveModuleStates(new ChassisSpeeds()), stopped);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(0.0, stopped[i].speedMetersPerSecond);
+      assertEquals(moving[i].angle.getRadians(), stopped[i].angle.getRadians(), kTolerance);
+    }
+  }
+
+  @Test
+  void desaturationMatchesGenericSolverWithAllModules() {
+    for (int n = 0; n < kSamples; n++) {
+      SwerveModuleState[] expected = new SwerveModuleState[4];
+      SwerveModuleState[] actual = new SwerveModuleState[4];
+      for (int i = 0; i < 4; i++) {
+        Rotation2d angle = randomAngle();
+        double speed = m_random.nextGaussian() * 6;
+        expected[i] = new SwerveModuleState(speed, angle);
+        actual[i] = new SwerveModuleState(speed, angle);
+      }
+      SwerveDriveKinematics.desaturateWheelSpeeds(expected, 4.5);
+      FourModuleKinematics.desaturateWheelSpeeds(actual, 0b1111, 4.5);
+      assertStatesEqual(expected, actual);
+    }
+  }
+
+  @Test
+  void desaturationOnlyCountsMaskedModules() {
+    SwerveModuleState[] states = {
+      new SwerveModuleState(6, new Rotation2d()),
+      new SwerveModuleState(-3, new Rotation2d()),
+      new SwerveModuleState(2, new Rotation2d()),
+      new SwerveModuleState(1, new Rotation2d()),
+    };
+    // State 0 is left out, so state 1 sets the scale, and every state is scaled by it
+    FourModuleKinematics.desaturateWheelSpeeds(states, 0b1110, 2);
+    assertEquals(4, states[0].speedMetersPerSecond, kTolerance);
+    assertEquals(-2, states[1].speedMetersPerSecond, kTolerance);
+    assertEquals(4.0 / 3, states[2].speedMetersPerSecond, kTolerance);
+    assertEquals(2.0 / 3, states[3].speedMetersPerSecond, kTolerance);
+
+    // Nothing in the mask over the limit leaves the states alone
+    FourModuleKinematics.desaturateWheelSpeeds(states, 0b1100, 2);
+    assertEquals(4, states[0].speedMetersPerSecond, kTolerance);
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright (c) 2023 FRC Team 2881 - The Lady Cans
+//
+// Open Source Software; you can modify and/or share it under the terms of BSD
+// license file in the root directory of this project.
+
+package frc.robot.lib;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import frc.robot.Constants;
+import frc.robot.lib.TaskScheduler.Priority;
+
+class TaskSchedulerTest {
+  private static final double kTick = Constants.Tasks.kTickSeconds;
+  private static final int kTicks = 500;
+
+  private double m_time;
+  private TaskScheduler m_scheduler;
+  private int m_highRuns;
+  private int m_normalRuns;
+  private int m_lowRuns;
+
+  @BeforeEach
+  void setup() {
+    m_time = 0;
+    m_highRuns = 0;
+    m_normalRuns = 0;
+    m_lowRuns = 0;
+    m_scheduler = new TaskScheduler(() -> m_time);
+    m_scheduler.add("High", () -> m_highRuns++, kTick, Priority.HIGH, 1);
+    m_scheduler.add("Normal", () -> m_normalRuns++, kTick, Priority.NORMAL, 1);
+    m_scheduler.add("Low", () -> m_lowRuns++, 5 * kTick, Priority.LOW, 1);
+  }
+
+  /** Runs the scheduler for one tick, the given time after the tick was due. */
+  private void tick(int tick, double lateness) {
+    m_time = 100 + Constants.Tasks.kPhaseOffsetSeconds + tick * kTick + lateness;
+    m_scheduler.run();
+  }
+
+  @Test
+  void lateFirstTickAndJitterDoNotDeferTasks() {
+    Random random = new Random(2881);
+    // The first tick waits behind the first main loop cycle; later ones jitter by up to 2 ms
+    tick(0, 0.015);
+    for (int i = 1; i < kTicks; i++) {
+      tick(i, random.nextDouble() * 0.002);
+    }
+
+    assertEquals(kTicks, m_highRuns);
+    assertEquals(kTicks, m_normalRuns);
+    assertTrue(m_lowRuns >= kTicks / 5 - 1, "low priority task ran " + m_lowRuns + " times");
+  }
+
+  @Test
+  void lateTickDefersToNextTick() {
+    for (int i = 0; i < 10; i++) {
+      tick(i, 0);
+    }
+    int normalRuns = m_normalRuns;
+
+    tick(10, 0.008);
+    assertEquals(11, m_highRuns);
+    assertEquals(normalRuns, m_normalRuns);
+
+    tick(11, 0);
+    assertEquals(normalRuns + 1, m_normalRuns);
+  }
+
+  @Test
+  void ticksRunBackToBackAreCountedSeparately() {
+    for (int i = 0; i < 10; i++) {
+      tick(i, 0);
+    }
+    // The main loop held up ticks 10 and 11, and TimedRobot runs them together at tick 12's time
+    tick(10, 2 * kTick);
+    tick(11, kTick);
+    tick(12, 0);
+    for (int i = 13; i < 20; i++) {
+      tick(i, 0);
+    }
+
+    assertEquals(20, m_highRuns);
+    // Ticks 10 and 11 were late, so the normal task waited until tick 12, then ran every tick again
+    assertEquals(18, m_normalRuns);
+  }
+}